@@ -0,0 +1,174 @@
+package org.jsheet.bench;
+
+import org.jsheet.data.Formula;
+import org.jsheet.data.JSheetTableModel;
+import org.jsheet.evaluation.*;
+import org.jsheet.expression.*;
+import org.jsheet.parser.ParseException;
+import org.jsheet.parser.ParserUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Evaluation of arithmetic and comparisons over plain numbers. Run it with
+ * {@code -prof gc} to see the allocation per evaluation,
+ * {@code gc.alloc.rate.norm}, against boxed values as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationBenchmark {
+    private static final int ROW_COUNT = 10_000;
+
+    private JSheetTableModel model;
+    private Formula[] formulae;
+    private CompiledExpression[] compiled;
+
+    @Setup
+    public void setUp() throws ParseException {
+        model = new JSheetTableModel(ROW_COUNT, JSheetTableModel.MIN_COLUMN_COUNT);
+        formulae = new Formula[2 * ROW_COUNT];
+        compiled = new CompiledExpression[formulae.length];
+        for (int row = 0; row < ROW_COUNT; row++) {
+            model.setValueAt(Value.of(row * 0.25), row, 0);
+            model.setValueAt(Value.of(row % 100), row, 1);
+            model.setValueAt(ParserUtils.parseValue(
+                "= A" + row + " * 1.5 + B" + row + " / 3 - 2"), row, 2);
+            model.setValueAt(ParserUtils.parseValue(
+                "= C" + row + " > 100 && A" + row + " <= B" + row), row, 3);
+            formulae[2 * row] = model.getValueAt(row, 2).getAsFormula();
+            formulae[2 * row + 1] = model.getValueAt(row, 3).getAsFormula();
+        }
+        for (int i = 0; i < formulae.length; i++)
+            compiled[i] = formulae[i].getTemplate().getCompiled();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * ROW_COUNT)
+    public void interpreted(Blackhole blackhole) throws EvaluationException {
+        for (var formula : formulae)
+            blackhole.consume(formula.getExpression().evaluate(new Evaluator(model, formula)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * ROW_COUNT)
+    public void compiled(Blackhole blackhole) throws EvaluationException {
+        for (int i = 0; i < compiled.length; i++)
+            blackhole.consume(compiled[i].evaluate(model, formulae[i]));
+    }
+
+    /**
+     * The way expressions used to be interpreted, with a boxed number or
+     * boolean in a new value on every step, as a baseline.
+     */
+    @Benchmark
+    @OperationsPerInvocation(2 * ROW_COUNT)
+    public void interpretedBoxed(Blackhole blackhole) throws EvaluationException {
+        for (var formula : formulae)
+            blackhole.consume(formula.getExpression().evaluate(new BoxedEvaluator(model, formula)));
+    }
+
+    private static class BoxedValue {
+        final Type tag;
+        final Object value;
+
+        BoxedValue(Type tag, Object value) {
+            this.tag = tag;
+            this.value = value;
+        }
+    }
+
+    private static class BoxedEvaluator implements EvaluationVisitor<BoxedValue> {
+        private final JSheetTableModel model;
+        private final Formula formula;
+
+        BoxedEvaluator(JSheetTableModel model, Formula formula) {
+            this.model = model;
+            this.formula = formula;
+        }
+
+        @Override
+        @SuppressWarnings("Convert2MethodRef")
+        public BoxedValue visit(Binop binop) throws EvaluationException {
+            BoxedValue left = binop.getLeft().evaluate(this);
+            BoxedValue right = binop.getRight().evaluate(this);
+            String op = binop.getOp().getSymbol();
+            if (List.of("+", "-", "*", "/").contains(op)) {
+                BiFunction<Double, Double, Double> binary;
+                switch (op) {
+                    case "+": binary = (a, b) -> a + b; break;
+                    case "-": binary = (a, b) -> a - b; break;
+                    case "*": binary = (a, b) -> a * b; break;
+                    default: binary = (a, b) -> a / b; break;
+                }
+                return new BoxedValue(Type.DOUBLE,
+                    binary.apply((Double) left.value, (Double) right.value));
+            }
+            if (List.of("&&", "||").contains(op)) {
+                BiFunction<Boolean, Boolean, Boolean> binary = op.equals("&&")
+                    ? Boolean::logicalAnd
+                    : Boolean::logicalOr;
+                return new BoxedValue(Type.BOOLEAN,
+                    binary.apply((Boolean) left.value, (Boolean) right.value));
+            }
+            BiFunction<Double, Double, Boolean> binary;
+            switch (op) {
+                case "<": binary = (a, b) -> a < b; break;
+                case "<=": binary = (a, b) -> a <= b; break;
+                case ">": binary = (a, b) -> a > b; break;
+                case ">=": binary = (a, b) -> a >= b; break;
+                case "==": binary = (a, b) -> a.equals(b); break;
+                default: binary = (a, b) -> !a.equals(b); break;
+            }
+            return new BoxedValue(Type.BOOLEAN,
+                binary.apply((Double) left.value, (Double) right.value));
+        }
+
+        @Override
+        public BoxedValue visit(DoubleLiteral literal) {
+            return new BoxedValue(Type.DOUBLE, literal.getValue());
+        }
+
+        @Override
+        public BoxedValue visit(Reference reference) {
+            Result result = model.getResultAt(formula.getCell(reference));
+            Value value = result.get();
+            // Values used to box what the model stores unboxed
+            return value.getTag() == Type.DOUBLE
+                ? new BoxedValue(Type.DOUBLE, value.getAsDouble())
+                : new BoxedValue(Type.BOOLEAN, value.getAsBoolean());
+        }
+
+        @Override
+        public BoxedValue visit(Conditional conditional) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BoxedValue visit(Function function) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BoxedValue visit(BooleanLiteral literal) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BoxedValue visit(StringLiteral literal) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BoxedValue visit(Range range) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
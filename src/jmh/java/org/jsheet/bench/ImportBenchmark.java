@@ -0,0 +1,98 @@
+package org.jsheet.bench;
+
+import com.opencsv.exceptions.CsvValidationException;
+import org.jsheet.data.CsvImporter;
+import org.jsheet.data.JSheetTableModel;
+import org.jsheet.evaluation.Value;
+import org.jsheet.parser.Lexer;
+import org.jsheet.parser.ParseException;
+import org.jsheet.parser.ParserUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of a file which consists of strings for the most part,
+ * the worst case for guessing the type of a value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImportBenchmark {
+    private static final int ROW_COUNT = 50_000;
+    private static final int COLUMN_COUNT = 10;
+
+    @Param({ "0.9" })
+    public double stringShare;
+
+    private File file;
+    private String[] cells;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(0);
+        cells = new String[ROW_COUNT * COLUMN_COUNT];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = random.nextDouble() < stringShare
+                ? "item-" + random.nextInt(1000)
+                : Double.toString(random.nextInt(1_000_000) / 100.0);
+        }
+        file = File.createTempFile("bench", ".csv");
+        file.deleteOnExit();
+        try (var writer = new PrintWriter(new FileWriter(file))) {
+            for (int row = 0; row < ROW_COUNT; row++) {
+                for (int column = 0; column < COLUMN_COUNT; column++) {
+                    if (column > 0)
+                        writer.print(',');
+                    writer.print(cells[row * COLUMN_COUNT + column]);
+                }
+                writer.println();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public JSheetTableModel importFile() throws IOException, CsvValidationException, ParseException {
+        return new CsvImporter(file).importModel();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT * COLUMN_COUNT)
+    public void parseLiterals(Blackhole blackhole) throws ParseException {
+        for (var cell : cells)
+            blackhole.consume(ParserUtils.parseValue(cell));
+    }
+
+    /**
+     * The way literals used to be parsed, as a baseline.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT * COLUMN_COUNT)
+    public void parseLiteralsWithExceptions(Blackhole blackhole) {
+        for (var cell : cells)
+            blackhole.consume(parseWithExceptions(cell));
+    }
+
+    private static Value parseWithExceptions(String strValue) {
+        if (Lexer.BOOL_LITERALS.containsKey(strValue))
+            return Value.of(Lexer.BOOL_LITERALS.get(strValue));
+        try {
+            return Value.of(Double.parseDouble(strValue));
+        } catch (NumberFormatException ignored) {}
+        return Value.of(strValue);
+    }
+}
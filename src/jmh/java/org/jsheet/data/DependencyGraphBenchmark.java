@@ -0,0 +1,166 @@
+package org.jsheet.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CellGraph} against maps of boxed cells the dependency manager used
+ * to keep, on a column filled with {@code = B(n-1) + $A$0}, and
+ * a {@link RangeIndex} on a column filled with {@code = sum($A$1:$A$10)}.
+ * The benchmark is in this package since both are package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DependencyGraphBenchmark {
+    @Param({ "100000" })
+    public int rowCount;
+
+    private CellGraph graph;
+    private Map<BoxedCell, Collection<BoxedCell>> referencedBy;
+
+    @Setup
+    public void setUp() {
+        graph = new CellGraph();
+        link(graph);
+        referencedBy = new HashMap<>();
+        link(new HashMap<>(), referencedBy);
+    }
+
+    @Benchmark
+    public CellGraph linkAndUnlinkGraph() {
+        CellGraph graph = new CellGraph();
+        link(graph);
+        for (int row = 1; row < rowCount; row++) {
+            Cell cell = new Cell(row, 1);
+            graph.removeLink(cell, new Cell(row - 1, 1));
+            graph.removeLink(cell, new Cell(0, 0));
+            graph.removeFormula(cell);
+        }
+        return graph;
+    }
+
+    /**
+     * Every formula of the column shares the same range, so they are all
+     * owners of a single entry of the index.
+     */
+    @Benchmark
+    public RangeIndex addAndRemoveRange() {
+        RangeIndex index = new RangeIndex();
+        Cell first = new Cell(1, 0);
+        Cell last = new Cell(10, 0);
+        for (int row = 1; row < rowCount; row++)
+            index.add(row, first, last);
+        for (int row = 1; row < rowCount; row++)
+            index.remove(row, first, last);
+        return index;
+    }
+
+    @Benchmark
+    public Map<BoxedCell, Collection<BoxedCell>> linkAndUnlinkMaps() {
+        Map<BoxedCell, Collection<BoxedCell>> references = new HashMap<>();
+        Map<BoxedCell, Collection<BoxedCell>> referencedBy = new HashMap<>();
+        link(references, referencedBy);
+        for (int row = 1; row < rowCount; row++) {
+            BoxedCell cell = new BoxedCell(row, 1);
+            for (var to : List.of(new BoxedCell(row - 1, 1), new BoxedCell(0, 0))) {
+                references.get(cell).remove(to);
+                referencedBy.get(to).remove(cell);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Finds everything which depends on {@code $A$0} with stamps in an array.
+     */
+    @Benchmark
+    public int dependentsGraph() {
+        int[] stamps = new int[graph.capacity()];
+        int[] queue = new int[graph.capacity()];
+        int tail = 0;
+        int start = graph.id(0, 0);
+        stamps[start] = 1;
+        queue[tail++] = start;
+        for (int head = 0; head < tail; head++) {
+            final int[] t = { tail };
+            graph.forEachReferencedBy(queue[head], u -> {
+                if (stamps[u] == 0) {
+                    stamps[u] = 1;
+                    queue[t[0]++] = u;
+                }
+            });
+            tail = t[0];
+        }
+        return tail;
+    }
+
+    @Benchmark
+    public int dependentsMaps() {
+        Set<BoxedCell> dependent = new HashSet<>();
+        Queue<BoxedCell> queue = new ArrayDeque<>();
+        queue.add(new BoxedCell(0, 0));
+        while (!queue.isEmpty()) {
+            Collection<BoxedCell> us = referencedBy.get(queue.remove());
+            if (us == null)
+                continue;
+            for (var u : us) {
+                if (dependent.add(u))
+                    queue.add(u);
+            }
+        }
+        return dependent.size();
+    }
+
+    private void link(CellGraph graph) {
+        for (int row = 1; row < rowCount; row++) {
+            Cell cell = new Cell(row, 1);
+            graph.addFormula(cell);
+            graph.addLink(cell, new Cell(row - 1, 1));
+            graph.addLink(cell, new Cell(0, 0));
+        }
+    }
+
+    private void link(Map<BoxedCell, Collection<BoxedCell>> references,
+        Map<BoxedCell, Collection<BoxedCell>> referencedBy)
+    {
+        for (int row = 1; row < rowCount; row++) {
+            BoxedCell cell = new BoxedCell(row, 1);
+            for (var to : List.of(new BoxedCell(row - 1, 1), new BoxedCell(0, 0))) {
+                references.computeIfAbsent(cell, k -> new ArrayList<>()).add(to);
+                referencedBy.computeIfAbsent(to, k -> new ArrayList<>()).add(cell);
+            }
+        }
+    }
+
+    /**
+     * A cell hashed the way cells used to be.
+     */
+    static class BoxedCell {
+        final int row;
+        final int column;
+
+        BoxedCell(int row, int column) {
+            this.row = row;
+            this.column = column;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BoxedCell that = (BoxedCell) o;
+            return row == that.row && column == that.column;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(row, column);
+        }
+    }
+}
@@ -57,7 +57,7 @@ class DimensionDialog extends JDialog implements ActionListener, PropertyChangeL
     public DimensionDialog(Frame aFrame) {
         super(aFrame, true);
         setTitle("Set table dimension");
-        textField = new JTextField(10);
+        textField = new JTextField(15);
 
         String message = String.format(
             "Please enter row count (%d - %d) and column count (%d - %d) separated by comma.",
@@ -1,10 +1,14 @@
 package org.jsheet;
 
+import org.jsheet.data.Cell;
+import org.jsheet.data.JSheetTableModel;
 import org.jsheet.evaluation.Result;
 import org.jsheet.evaluation.Type;
 import org.jsheet.evaluation.Value;
 
+import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
 import java.text.NumberFormat;
 
 public class ExpressionRenderer extends DefaultTableCellRenderer {
@@ -13,11 +17,38 @@ public class ExpressionRenderer extends DefaultTableCellRenderer {
         format.setGroupingUsed(false);
     }
 
+    // The result of the cell being rendered if it holds a formula
+    private Result result;
+
+    /**
+     * Takes results from the model, which evaluates stale formulae
+     * on demand in the lazy mode.
+     */
+    @Override
+    public Component getTableCellRendererComponent(
+        JTable table, Object value, boolean isSelected,
+        boolean hasFocus, int row, int column)
+    {
+        result = null;
+        if (value != null && ((Value) value).getTag() == Type.FORMULA) {
+            result = table.getModel() instanceof JSheetTableModel
+                ? ((JSheetTableModel) table.getModel()).getResultAt(new Cell(
+                    table.convertRowIndexToModel(row), table.convertColumnIndexToModel(column)))
+                : ((Value) value).getAsFormula().getResult();
+        }
+        return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+    }
+
     @Override
     protected void setValue(Object o) {
         Value value = (Value) o;
         if (value.getTag() == Type.FORMULA) {
-            Result result = value.getAsFormula().getResult();
+            if (result == null) {
+                // Not evaluated in the background yet
+                setText("");
+                setToolTipText(null);
+                return;
+            }
             if (!result.isPresent()) {
                 setText("!ERROR");
                 setToolTipText(result.message());
@@ -31,7 +62,7 @@ public class ExpressionRenderer extends DefaultTableCellRenderer {
 
     private String renderPlainValue(Value value) {
         switch (value.getTag()) {
-            case BOOLEAN: return value.getAsBoolean().toString();
+            case BOOLEAN: return Boolean.toString(value.getAsBoolean());
             case DOUBLE: return format.format(value.getAsDouble());
             case STRING: return value.getAsString();
             case RANGE: return value.getAsRange().getName();
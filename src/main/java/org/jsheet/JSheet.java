@@ -1,9 +1,8 @@
 package org.jsheet;
 
-import com.opencsv.exceptions.CsvValidationException;
+import org.jsheet.data.CsvImporter;
 import org.jsheet.data.JSheetTableModel;
 import org.jsheet.evaluation.Value;
-import org.jsheet.parser.ParseException;
 
 import javax.swing.*;
 import javax.swing.table.AbstractTableModel;
@@ -16,6 +15,10 @@ import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static java.awt.event.ActionEvent.CTRL_MASK;
 import static java.awt.event.KeyEvent.*;
@@ -36,9 +39,18 @@ public class JSheet extends JFrame {
 
     public static final String ERROR_MESSAGE_TITLE = "Error";
 
+    public static final String BINARY_EXTENSION = ".jsb";
+
     private JSheetTableModel model;
     private JSheetTable table;
 
+    // Re-evaluates formulae off the event dispatch thread
+    private final ExecutorService recalculationExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "recalculation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final JFileChooser chooser = new JFileChooser();
     private File currentFile = null;
 
@@ -59,9 +71,8 @@ public class JSheet extends JFrame {
 
         int rowCount = dimensionDialog.getRowCount();
         int columnCount = dimensionDialog.getColumnCount();
-        model = new JSheetTableModel(rowCount, columnCount);
+        setModel(new JSheetTableModel(rowCount, columnCount));
         currentFile = null;
-        table.setModel(model);
     };
 
     private final ActionListener openActionListener = event -> {
@@ -69,16 +80,7 @@ public class JSheet extends JFrame {
         File file = askForOpenFile();
         if (file == null)
             return;
-        try {
-            model = JSheetTableModel.read(file);
-            table.setModel(model);
-            updateCurrentFile(file);
-        } catch (IOException | CsvValidationException | ParseException e) {
-            JOptionPane.showMessageDialog(this,
-                String.format("Cannot read %s: %s", file.getName(), e.getMessage()),
-                ERROR_MESSAGE_TITLE,
-                JOptionPane.ERROR_MESSAGE);
-        }
+        open(file);
     };
 
     private final ActionListener saveActionListener = event -> save();
@@ -118,6 +120,61 @@ public class JSheet extends JFrame {
         }
     }
 
+    /**
+     * Imports {@code file} in the background while showing the progress,
+     * the import is cancelled if the user closes the progress monitor.
+     * Files in the binary format are read without progress.
+     */
+    private void open(File file) {
+        CsvImporter importer = new CsvImporter(file);
+        ProgressMonitor monitor = new ProgressMonitor(this,
+            String.format("Opening %s", file.getName()), null, 0, 100);
+        SwingWorker<JSheetTableModel, Void> worker = new SwingWorker<>() {
+            @Override
+            protected JSheetTableModel doInBackground() throws Exception {
+                if (isBinary(file))
+                    return JSheetTableModel.readBinary(file);
+                importer.setProgressListener(this::setProgress);
+                return importer.importModel();
+            }
+
+            @Override
+            protected void done() {
+                monitor.close();
+                if (importer.isCancelled())
+                    return;
+                try {
+                    setModel(get());
+                    updateCurrentFile(file);
+                } catch (InterruptedException | CancellationException ignored) {
+                    // Nothing to open
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(JSheet.this,
+                        String.format("Cannot read %s: %s", file.getName(), e.getCause().getMessage()),
+                        ERROR_MESSAGE_TITLE,
+                        JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(event -> {
+            if (!"progress".equals(event.getPropertyName()))
+                return;
+            if (monitor.isCanceled())
+                importer.cancel();
+            else
+                monitor.setProgress((Integer) event.getNewValue());
+        });
+        worker.execute();
+    }
+
+    private void setModel(JSheetTableModel model) {
+        // The executor is shared, the old model must not keep it busy
+        this.model.discardRecalculation();
+        model.setRecalculationExecutor(recalculationExecutor);
+        this.model = model;
+        table.setModel(model);
+    }
+
     private boolean save() {
         File file = currentFile != null ? currentFile : askForSaveFile();
         return saveTo(file);
@@ -127,7 +184,10 @@ public class JSheet extends JFrame {
         if (file == null)
             return true;
         try {
-            JSheetTableModel.write(file, model);
+            if (isBinary(file))
+                JSheetTableModel.writeBinary(file, model);
+            else
+                JSheetTableModel.write(file, model);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this,
                 String.format("Cannot write %s: %s", file.getName(), e.getMessage()),
@@ -140,6 +200,10 @@ public class JSheet extends JFrame {
         return false;
     }
 
+    private static boolean isBinary(File file) {
+        return file.getName().endsWith(BINARY_EXTENSION);
+    }
+
     private File askForOpenFile() {
         if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
             return null;
@@ -193,6 +257,7 @@ public class JSheet extends JFrame {
             super(new GridLayout(1, 0));
 
             model = new JSheetTableModel();
+            model.setRecalculationExecutor(recalculationExecutor);
             table = new JSheetTable(model);
             table.setDefaultEditor(Object.class, new JSheetEditor(JSheet.this));
             table.setDefaultRenderer(Value.class, new ExpressionRenderer());
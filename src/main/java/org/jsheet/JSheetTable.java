@@ -34,10 +34,16 @@ public class JSheetTable extends JTable {
             return;
         int rowCount = getSelectedRowCount();
         int columnCount = getSelectedColumnCount();
-        for (int rowOffset = 0; rowOffset < rowCount; rowOffset++) {
-            for (int colOffset = 0; colOffset < columnCount; colOffset++) {
-                setValueAt(null, selectedRow + rowOffset, selectedColumn + colOffset);
+        JSheetTableModel model = (JSheetTableModel) getModel();
+        model.beginBatch();
+        try {
+            for (int rowOffset = 0; rowOffset < rowCount; rowOffset++) {
+                for (int colOffset = 0; colOffset < columnCount; colOffset++) {
+                    setValueAt(null, selectedRow + rowOffset, selectedColumn + colOffset);
+                }
             }
+        } finally {
+            model.commitBatch();
         }
     }
 
@@ -92,10 +98,15 @@ public class JSheetTable extends JTable {
         }
 
         void paste() {
-            if (rowCount == 1 && columnCount == 1) {
-                fillWithSingleCell();
-            } else {
-                pasteRange();
+            model.beginBatch();
+            try {
+                if (rowCount == 1 && columnCount == 1) {
+                    fillWithSingleCell();
+                } else {
+                    pasteRange();
+                }
+            } finally {
+                model.commitBatch();
             }
         }
 
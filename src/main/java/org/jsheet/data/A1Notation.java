@@ -0,0 +1,147 @@
+package org.jsheet.data;
+
+/**
+ * Encodes and decodes cell names such as {@code B7} or {@code $AB$12}.
+ * Columns are named {@code A}, ..., {@code Z}, {@code AA}, ... just like in
+ * {@link javax.swing.table.AbstractTableModel#getColumnName(int)} and rows
+ * are numbered from zero.
+ * <p>
+ * Names are decoded arithmetically in a single pass. Names of all the columns
+ * a model may have are computed once and shared.
+ * <p>
+ * A decoded name is packed into a {@code long} so that decoding doesn't
+ * allocate, see {@link #row(long)}, {@link #column(long)},
+ * {@link #isRowAbsolute(long)} and {@link #isColumnAbsolute(long)}.
+ */
+public final class A1Notation {
+    /**
+     * Result of decoding something which is not a cell name.
+     */
+    public static final long INVALID = -1;
+
+    // Bounds decoded rows and columns well away from overflow
+    private static final int MAX_DECODED = Integer.MAX_VALUE / 32;
+
+    private static final int COLUMN_SHIFT = 32;
+    private static final long ROW_ABSOLUTE = 1L << 61;
+    private static final long COLUMN_ABSOLUTE = 1L << 62;
+
+    private static final String[] COLUMN_NAMES = new String[JSheetTableModel.MAX_COLUMN_COUNT];
+    static {
+        for (int column = 0; column < COLUMN_NAMES.length; column++)
+            COLUMN_NAMES[column] = computeColumnName(column);
+    }
+
+    private A1Notation() {
+    }
+
+    /**
+     * @return the name of a column, which is shared for columns a model may have.
+     */
+    public static String columnName(int column) {
+        if (column < COLUMN_NAMES.length)
+            return COLUMN_NAMES[column];
+        return computeColumnName(column);
+    }
+
+    /**
+     * @return the name of a cell, e.g. {@code B7}.
+     */
+    public static String name(int row, int column) {
+        return columnName(column) + row;
+    }
+
+    public static String name(Cell cell) {
+        return name(cell.row, cell.column);
+    }
+
+    /**
+     * @return the name of a cell with absolute parts marked, e.g. {@code $B7}.
+     */
+    public static String name(int row, int column, boolean isRowAbsolute, boolean isColumnAbsolute) {
+        return (isColumnAbsolute ? "$" : "")
+            + columnName(column)
+            + (isRowAbsolute ? "$" : "")
+            + row;
+    }
+
+    /**
+     * @return the index of a column by its name or -1 if it's not a column name.
+     */
+    public static int decodeColumn(CharSequence name) {
+        int column = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 'A' || c > 'Z' || column > MAX_DECODED / 26)
+                return -1;
+            column = 26 * column + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    public static long decode(CharSequence name) {
+        return decode(name, 0, name.length());
+    }
+
+    /**
+     * Decodes a cell name of the form {@code [$]COLUMN[$]ROW} between
+     * {@code from} and {@code to}.
+     *
+     * @return the decoded name or {@link #INVALID}.
+     */
+    public static long decode(CharSequence s, int from, int to) {
+        int i = from;
+        boolean isColumnAbsolute = i < to && s.charAt(i) == '$';
+        if (isColumnAbsolute)
+            i++;
+        int column = 0;
+        int columnStart = i;
+        for (; i < to && 'A' <= s.charAt(i) && s.charAt(i) <= 'Z'; i++) {
+            if (column > MAX_DECODED / 26)
+                return INVALID;
+            column = 26 * column + (s.charAt(i) - 'A' + 1);
+        }
+        if (i == columnStart || i == to)
+            return INVALID;
+        boolean isRowAbsolute = s.charAt(i) == '$';
+        if (isRowAbsolute)
+            i++;
+        int row = 0;
+        int rowStart = i;
+        for (; i < to && '0' <= s.charAt(i) && s.charAt(i) <= '9'; i++) {
+            if (row > MAX_DECODED / 10)
+                return INVALID;
+            row = 10 * row + (s.charAt(i) - '0');
+        }
+        if (i == rowStart || i != to)
+            return INVALID;
+        return row
+            | (long) (column - 1) << COLUMN_SHIFT
+            | (isRowAbsolute ? ROW_ABSOLUTE : 0)
+            | (isColumnAbsolute ? COLUMN_ABSOLUTE : 0);
+    }
+
+    public static int row(long decoded) {
+        return (int) decoded;
+    }
+
+    public static int column(long decoded) {
+        return (int) ((decoded & ~(ROW_ABSOLUTE | COLUMN_ABSOLUTE)) >>> COLUMN_SHIFT);
+    }
+
+    public static boolean isRowAbsolute(long decoded) {
+        return (decoded & ROW_ABSOLUTE) != 0;
+    }
+
+    public static boolean isColumnAbsolute(long decoded) {
+        return (decoded & COLUMN_ABSOLUTE) != 0;
+    }
+
+    private static String computeColumnName(int column) {
+        // Same as AbstractTableModel.getColumnName()
+        StringBuilder sb = new StringBuilder();
+        for (; column >= 0; column = column / 26 - 1)
+            sb.append((char) (column % 26 + 'A'));
+        return sb.reverse().toString();
+    }
+}
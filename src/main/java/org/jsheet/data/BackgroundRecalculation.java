@@ -0,0 +1,128 @@
+package org.jsheet.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Re-evaluates formulae of a model on an {@link Executor}, so that a large
+ * re-evaluation doesn't freeze the event dispatch thread.
+ * <p>
+ * The model is still changed by a single thread, which must {@link #cancel()}
+ * the running re-evaluation before every change, so that formulae are never
+ * evaluated against a half-done edit. Cancellation takes effect before the next
+ * formula. The formulae it leaves unevaluated are handed back, so that they
+ * are re-evaluated along with the change rather than from scratch.
+ * <p>
+ * Updated cells are announced on the event dispatch thread through
+ * an {@link UpdateCoalescer}, streamed while the re-evaluation goes and
+ * once more when it finishes or is cancelled.
+ */
+class BackgroundRecalculation {
+    private final DependencyManager dependencies;
+    private final UpdateCoalescer updates;
+    private final Executor executor;
+
+    // The last submitted job, null if it's joined already
+    private Job job;
+
+    BackgroundRecalculation(DependencyManager dependencies, UpdateCoalescer updates, Executor executor) {
+        this.dependencies = dependencies;
+        this.updates = updates;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts re-evaluating formulae which depend on {@code changed} cells.
+     */
+    void submit(Collection<Cell> changed) {
+        Set<Cell> cells = new HashSet<>(changed);
+        cells.addAll(cancel());
+        job = new Job(cells);
+        executor.execute(job.task);
+    }
+
+    /**
+     * Stops the running re-evaluation and waits for it to stop.
+     *
+     * @return formulae left to re-evaluate.
+     */
+    Collection<Cell> cancel() {
+        if (job == null)
+            return List.of();
+        job.cancelled = true;
+        return join();
+    }
+
+    /**
+     * Waits for the running re-evaluation to finish.
+     */
+    void await() {
+        if (job != null)
+            join();
+    }
+
+    private Collection<Cell> join() {
+        Job joined = job;
+        job = null;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return joined.task.get();
+                } catch (InterruptedException e) {
+                    // The job must be over before the model changes
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Job implements Callable<Collection<Cell>>, DependencyManager.Progress {
+        final Collection<Cell> changed;
+        final FutureTask<Collection<Cell>> task = new FutureTask<>(this);
+        volatile boolean cancelled = false;
+
+        Job(Collection<Cell> changed) {
+            this.changed = changed;
+        }
+
+        @Override
+        public Collection<Cell> call() {
+            List<Cell> remaining = new ArrayList<>();
+            try {
+                dependencies.reevaluateAll(changed, this, remaining);
+            } finally {
+                updates.flushLater(true);
+            }
+            return remaining;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void evaluated(Cell cell) {
+            updates.add(cell);
+            updates.flushLater(false);
+        }
+    }
+}
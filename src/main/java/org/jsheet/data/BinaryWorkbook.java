@@ -0,0 +1,482 @@
+package org.jsheet.data;
+
+import org.jsheet.evaluation.RangeValue;
+import org.jsheet.evaluation.Result;
+import org.jsheet.evaluation.Type;
+import org.jsheet.evaluation.Value;
+import org.jsheet.expression.*;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Native binary file format of a workbook.
+ * <p>
+ * Cells are stored column by column: a column holds the rows of its populated
+ * cells, their type tags, and then the values themselves. Numbers are stored
+ * in binary, every string, including formula definitions and function names,
+ * goes to a dictionary at the end of the file and is referred to by its index.
+ * Formulae are stored as syntax trees with already resolved references along
+ * with their last results, so a workbook is opened without parsing
+ * or evaluating anything, not even decoding cell names. A template is stored
+ * once, where the first formula using it is, and every formula refers to it
+ * by its index along with the shift of the formula, so a filled-down block
+ * still shares a single template once it is read back.
+ * <p>
+ * The file is read into memory in one go and closed right away, so that
+ * it can be overwritten while the workbook is open. Counts are checked
+ * against what's left of the file, so a corrupted one never makes
+ * the reader allocate more than the file size.
+ */
+class BinaryWorkbook {
+    private static final int MAGIC = 0x4A534232; // "JSB2"
+
+    // Header: magic, row count, column count, flags, dictionary offset
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+    private static final int HAS_RESULTS = 1;
+
+    // Cell tags
+    private static final byte BOOLEAN = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte FORMULA = 4;
+    private static final byte RANGE = 5;
+
+    // Result tags
+    private static final byte NO_RESULT = 0;
+    private static final byte SUCCESS = 1;
+    private static final byte FAILURE = 2;
+
+    // Expression tags
+    private static final byte BINOP = 1;
+    private static final byte CONDITIONAL = 2;
+    private static final byte FUNCTION = 3;
+    private static final byte BOOLEAN_LITERAL = 4;
+    private static final byte DOUBLE_LITERAL = 5;
+    private static final byte STRING_LITERAL = 6;
+    private static final byte RANGE_EXPRESSION = 7;
+    private static final byte REFERENCE = 8;
+
+    // Reference flags
+    private static final byte RESOLVED = 1;
+    private static final byte ROW_ABSOLUTE = 2;
+    private static final byte COLUMN_ABSOLUTE = 4;
+
+    private BinaryWorkbook() {
+    }
+
+    static void write(File file, JSheetTableModel model, boolean withResults) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Writer writer = new Writer(new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel))), model, withResults);
+            writer.out.write(new byte[HEADER_SIZE]);
+            long position = HEADER_SIZE;
+            for (int column = 0; column < model.getColumnCount(); column++)
+                position += writer.writeColumn(model, column);
+            writer.writeDictionary();
+            writer.out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(model.getRowCount());
+            header.putInt(model.getColumnCount());
+            header.putInt(withResults ? HAS_RESULTS : 0);
+            header.putLong(position);
+            header.flip();
+            channel.write(header, 0);
+        }
+    }
+
+    static JSheetTableModel read(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("file is too large");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new EOFException();
+            }
+            buffer.flip();
+            try {
+                return new Reader(buffer).read();
+            } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException e)
+            {
+                throw new IOException("corrupted file", e);
+            }
+        }
+    }
+
+    private static class Writer {
+        final DataOutputStream out;
+        final JSheetTableModel model;
+        final boolean withResults;
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        // Indices of templates written so far by their definitions
+        final Map<String, Integer> templates = new HashMap<>();
+
+        Writer(DataOutputStream out, JSheetTableModel model, boolean withResults) {
+            this.out = out;
+            this.model = model;
+            this.withResults = withResults;
+        }
+
+        /**
+         * @return the number of bytes written.
+         */
+        int writeColumn(JSheetTableModel model, int column) throws IOException {
+            List<Value> values = new ArrayList<>();
+            List<Integer> rows = new ArrayList<>();
+            model.forEachInColumn(column, (value, row) -> {
+                values.add(value);
+                rows.add(row);
+            });
+            int start = out.size();
+            out.writeInt(values.size());
+            for (int row : rows)
+                out.writeInt(row);
+            for (var value : values)
+                out.writeByte(tag(value.getTag()));
+            for (var value : values) {
+                if (value.getTag() == Type.FORMULA)
+                    writeFormula(value.getAsFormula());
+                else
+                    writePlainValue(value);
+            }
+            return out.size() - start;
+        }
+
+        void writeFormula(Formula formula) throws IOException {
+            FormulaTemplate template = formula.getTemplate();
+            Integer index = templates.get(template.getDefinition());
+            if (index == null) {
+                // A new template follows its index
+                index = templates.size();
+                templates.put(template.getDefinition(), index);
+                out.writeInt(index);
+                writeString(template.getDefinition());
+                writeExpression(template.getExpression());
+            } else {
+                out.writeInt(index);
+            }
+            out.writeInt(formula.getRowShift());
+            out.writeInt(formula.getColumnShift());
+            Result result = formula.getResult();
+            if (!withResults || result == null) {
+                out.writeByte(NO_RESULT);
+            } else if (result.isPresent()) {
+                out.writeByte(SUCCESS);
+                out.writeByte(tag(result.get().getTag()));
+                writePlainValue(result.get());
+            } else {
+                out.writeByte(FAILURE);
+                writeString(result.message());
+            }
+        }
+
+        void writePlainValue(Value value) throws IOException {
+            switch (value.getTag()) {
+                case BOOLEAN:
+                    out.writeBoolean(value.getAsBoolean());
+                    break;
+                case DOUBLE:
+                    out.writeDouble(value.getAsDouble());
+                    break;
+                case STRING:
+                    writeString(value.getAsString());
+                    break;
+                case RANGE:
+                    RangeValue range = value.getAsRange();
+                    writeString(range.getName());
+                    writeCell(range.getFirst());
+                    writeCell(range.getLast());
+                    break;
+                case FORMULA:
+                case ERROR:
+                    throw new AssertionError();
+            }
+        }
+
+        void writeExpression(Expression expression) throws IOException {
+            if (expression instanceof Binop) {
+                Binop binop = (Binop) expression;
+                out.writeByte(BINOP);
+                writeString(binop.getOp().getSymbol());
+                writeExpression(binop.getLeft());
+                writeExpression(binop.getRight());
+            } else if (expression instanceof Conditional) {
+                Conditional conditional = (Conditional) expression;
+                out.writeByte(CONDITIONAL);
+                writeExpression(conditional.getCondition());
+                writeExpression(conditional.getThenClause());
+                writeExpression(conditional.getElseClause());
+            } else if (expression instanceof Function) {
+                Function function = (Function) expression;
+                out.writeByte(FUNCTION);
+                writeString(function.getName());
+                out.writeInt(function.getArgs().size());
+                for (var arg : function.getArgs())
+                    writeExpression(arg);
+            } else if (expression instanceof BooleanLiteral) {
+                out.writeByte(BOOLEAN_LITERAL);
+                out.writeBoolean(((BooleanLiteral) expression).getValue());
+            } else if (expression instanceof DoubleLiteral) {
+                out.writeByte(DOUBLE_LITERAL);
+                out.writeDouble(((DoubleLiteral) expression).getValue());
+            } else if (expression instanceof StringLiteral) {
+                out.writeByte(STRING_LITERAL);
+                writeString(((StringLiteral) expression).getValue());
+            } else if (expression instanceof Range) {
+                Range range = (Range) expression;
+                out.writeByte(RANGE_EXPRESSION);
+                writeExpression(range.getFirst());
+                writeExpression(range.getLast());
+            } else if (expression instanceof Reference) {
+                Reference reference = (Reference) expression;
+                out.writeByte(REFERENCE);
+                writeString(reference.getName());
+                // Resolved in the cell of the template, formulae apply their shifts
+                Cell cell = reference.resolve(model);
+                int flags = (cell != null ? RESOLVED : 0)
+                    | (reference.isRowAbsolute() ? ROW_ABSOLUTE : 0)
+                    | (reference.isColumnAbsolute() ? COLUMN_ABSOLUTE : 0);
+                out.writeByte(flags);
+                if (cell != null)
+                    writeCell(cell);
+            } else {
+                throw new AssertionError();
+            }
+        }
+
+        void writeCell(Cell cell) throws IOException {
+            out.writeInt(cell.row);
+            out.writeInt(cell.column);
+        }
+
+        void writeString(String s) throws IOException {
+            Integer index = dictionary.get(s);
+            if (index == null) {
+                index = strings.size();
+                dictionary.put(s, index);
+                strings.add(s);
+            }
+            out.writeInt(index);
+        }
+
+        void writeDictionary() throws IOException {
+            out.writeInt(strings.size());
+            for (var s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static class Reader {
+        final ByteBuffer in;
+        String[] strings;
+
+        // Templates by their indices in the file
+        final List<FormulaTemplate> templates = new ArrayList<>();
+        // Number of references of the formula being read
+        int referenceCount;
+
+        Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        JSheetTableModel read() throws IOException {
+            if (in.getInt() != MAGIC)
+                throw new IOException("not a workbook file");
+            int rowCount = in.getInt();
+            int columnCount = in.getInt();
+            boolean hasResults = (in.getInt() & HAS_RESULTS) != 0;
+            long dictionaryOffset = in.getLong();
+            readDictionary((int) dictionaryOffset);
+
+            JSheetTableModel model = new JSheetTableModel(rowCount, columnCount);
+            List<Cell> formulae = new ArrayList<>();
+            in.position(HEADER_SIZE);
+            for (int column = 0; column < columnCount; column++)
+                readColumn(model, column, formulae);
+            model.loaded(formulae, !hasResults);
+            return model;
+        }
+
+        void readDictionary(int offset) throws IOException {
+            ByteBuffer dictionary = in.duplicate();
+            dictionary.position(offset);
+            strings = new String[readCount(dictionary)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readCount(dictionary)];
+                dictionary.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        void readColumn(JSheetTableModel model, int column, List<Cell> formulae) throws IOException {
+            int count = readCount(in);
+            int[] rows = new int[count];
+            for (int i = 0; i < count; i++)
+                rows[i] = in.getInt();
+            byte[] tags = new byte[count];
+            in.get(tags);
+            for (int i = 0; i < count; i++) {
+                if (tags[i] != FORMULA) {
+                    model.load(rows[i], column, readPlainValue(tags[i]));
+                    continue;
+                }
+                Formula formula = readFormula();
+                formula.resolveReferences(model);
+                model.load(rows[i], column, Value.of(formula));
+                formulae.add(new Cell(rows[i], column));
+            }
+        }
+
+        Formula readFormula() throws IOException {
+            int index = in.getInt();
+            if (index < 0 || index > templates.size())
+                throw new IOException("corrupted file");
+            if (index == templates.size())
+                templates.add(readTemplate());
+            FormulaTemplate template = templates.get(index);
+            int rowShift = in.getInt();
+            int columnShift = in.getInt();
+            Formula formula = new Formula(template, rowShift, columnShift);
+            switch (in.get()) {
+                case NO_RESULT:
+                    break;
+                case SUCCESS:
+                    formula.setResult(Result.success(readPlainValue(in.get())));
+                    break;
+                case FAILURE:
+                    formula.setResult(Result.failure(readString()));
+                    break;
+                default:
+                    throw new IOException("corrupted file");
+            }
+            return formula;
+        }
+
+        FormulaTemplate readTemplate() throws IOException {
+            String definition = readString();
+            referenceCount = 0;
+            Expression expression = readExpression();
+            List<Reference> references = expression.getReferences().collect(Collectors.toList());
+            List<Range> ranges = expression.getRanges().collect(Collectors.toList());
+            return new FormulaTemplate(definition, expression, references, ranges);
+        }
+
+        Value readPlainValue(byte tag) throws IOException {
+            switch (tag) {
+                case BOOLEAN: return Value.of(in.get() != 0);
+                case DOUBLE: return Value.of(in.getDouble());
+                case STRING: return Value.of(readString());
+                case RANGE:
+                    String name = readString();
+                    Cell first = readCell();
+                    Cell last = readCell();
+                    return Value.of(new RangeValue(first, last, name));
+                default: throw new IOException("corrupted file");
+            }
+        }
+
+        Expression readExpression() throws IOException {
+            switch (in.get()) {
+                case BINOP: {
+                    String op = readString();
+                    Expression left = readExpression();
+                    Expression right = readExpression();
+                    return new Binop(op, left, right);
+                }
+                case CONDITIONAL: {
+                    Expression condition = readExpression();
+                    Expression thenClause = readExpression();
+                    Expression elseClause = readExpression();
+                    return new Conditional(condition, thenClause, elseClause);
+                }
+                case FUNCTION: {
+                    String name = readString();
+                    int count = readCount(in);
+                    List<Expression> args = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++)
+                        args.add(readExpression());
+                    return new Function(name, args);
+                }
+                case BOOLEAN_LITERAL: return new BooleanLiteral(in.get() != 0);
+                case DOUBLE_LITERAL: return new DoubleLiteral(in.getDouble());
+                case STRING_LITERAL: return new StringLiteral(readString());
+                case RANGE_EXPRESSION: {
+                    Reference first = readReference();
+                    Reference last = readReference();
+                    return new Range(first, last);
+                }
+                case REFERENCE: return readReferenceBody();
+                default: throw new IOException("corrupted file");
+            }
+        }
+
+        /**
+         * Reads the number of items which follow in {@code buffer},
+         * each of them taking at least a byte.
+         */
+        static int readCount(ByteBuffer buffer) throws IOException {
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining())
+                throw new IOException("corrupted file");
+            return count;
+        }
+
+        Reference readReference() throws IOException {
+            if (in.get() != REFERENCE)
+                throw new IOException("corrupted file");
+            return readReferenceBody();
+        }
+
+        Reference readReferenceBody() throws IOException {
+            String name = readString();
+            byte flags = in.get();
+            // Names of unresolved references are decoded as usual
+            if ((flags & RESOLVED) == 0)
+                return new Reference(name, referenceCount++);
+            Cell cell = readCell();
+            if (cell.row < 0 || cell.column < 0)
+                throw new IOException("corrupted file");
+            return new Reference(name, cell.row, cell.column,
+                (flags & ROW_ABSOLUTE) != 0, (flags & COLUMN_ABSOLUTE) != 0, referenceCount++);
+        }
+
+        Cell readCell() {
+            int row = in.getInt();
+            int column = in.getInt();
+            return new Cell(row, column);
+        }
+
+        String readString() {
+            return strings[in.getInt()];
+        }
+    }
+
+    private static byte tag(Type type) {
+        switch (type) {
+            case BOOLEAN: return BOOLEAN;
+            case DOUBLE: return DOUBLE;
+            case STRING: return STRING;
+            case FORMULA: return FORMULA;
+            case RANGE: return RANGE;
+            default: throw new AssertionError();
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package org.jsheet.data;
 
-import java.util.Objects;
-
 public class Cell {
     public final int row;
     public final int column;
@@ -29,7 +27,7 @@ public class Cell {
 
     @Override
     public int hashCode() {
-        return Objects.hash(row, column);
+        return 31 * row + column;
     }
 
     @Override
@@ -0,0 +1,147 @@
+package org.jsheet.data;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Links between formulae and the cells they reference. Every formula and
+ * every referenced cell is a node with a dense {@code int} id, so that state
+ * of a traversal can be kept in plain arrays of {@link #capacity()} elements
+ * indexed by the id. Ids are looked up by cells packed into {@code long}s and
+ * are reused once a cell neither holds a formula nor takes part in a link.
+ */
+final class CellGraph {
+    private final LongIntMap ids = new LongIntMap();
+
+    private Cell[] cells = new Cell[16];
+    private boolean[] isFormula = new boolean[16];
+    // Adjacency, allocated on the first link
+    private IntBag[] references = new IntBag[16];
+    private IntBag[] referencedBy = new IntBag[16];
+
+    // Number of ids ever handed out
+    private int capacity = 0;
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    /**
+     * @return an upper bound of ids.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the id of {@code cell} or -1 if it's not in the graph.
+     */
+    int id(Cell cell) {
+        return id(cell.row, cell.column);
+    }
+
+    int id(int row, int column) {
+        return ids.get(key(row, column));
+    }
+
+    Cell cell(int id) {
+        return cells[id];
+    }
+
+    boolean isFormula(int id) {
+        return isFormula[id];
+    }
+
+    void addFormula(Cell cell) {
+        int id = node(cell);
+        isFormula[id] = true;
+    }
+
+    void removeFormula(Cell cell) {
+        int id = id(cell);
+        if (id < 0)
+            return;
+        isFormula[id] = false;
+        releaseIfUnused(id);
+    }
+
+    void addLink(Cell from, Cell to) {
+        int u = node(from);
+        int v = node(to);
+        if (references[u] == null)
+            references[u] = new IntBag();
+        references[u].add(v);
+        if (referencedBy[v] == null)
+            referencedBy[v] = new IntBag();
+        referencedBy[v].add(u);
+    }
+
+    void removeLink(Cell from, Cell to) {
+        int u = id(from);
+        int v = id(to);
+        if (u < 0 || v < 0 || references[u] == null || !references[u].remove(v))
+            throw new IllegalStateException("no link from " + from + " to " + to);
+        referencedBy[v].remove(u);
+        releaseIfUnused(u);
+        releaseIfUnused(v);
+    }
+
+    /**
+     * Calls {@code action} for every cell {@code id} references.
+     */
+    void forEachReference(int id, IntConsumer action) {
+        if (references[id] != null)
+            references[id].forEach(action);
+    }
+
+    /**
+     * Calls {@code action} for every cell which references {@code id}.
+     */
+    void forEachReferencedBy(int id, IntConsumer action) {
+        if (referencedBy[id] != null)
+            referencedBy[id].forEach(action);
+    }
+
+    private int node(Cell cell) {
+        long key = key(cell.row, cell.column);
+        int id = ids.get(key);
+        if (id >= 0)
+            return id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            id = capacity++;
+            if (id == cells.length)
+                grow();
+        }
+        ids.put(key, id);
+        cells[id] = cell;
+        return id;
+    }
+
+    private void releaseIfUnused(int id) {
+        if (isFormula[id]
+            || references[id] != null && !references[id].isEmpty()
+            || referencedBy[id] != null && !referencedBy[id].isEmpty())
+        {
+            return;
+        }
+        ids.remove(key(cells[id].row, cells[id].column));
+        cells[id] = null;
+        references[id] = null;
+        referencedBy[id] = null;
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, 2 * free.length);
+        free[freeCount++] = id;
+    }
+
+    private void grow() {
+        int length = 2 * cells.length;
+        cells = Arrays.copyOf(cells, length);
+        isFormula = Arrays.copyOf(isFormula, length);
+        references = Arrays.copyOf(references, length);
+        referencedBy = Arrays.copyOf(referencedBy, length);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row << 32 | column;
+    }
+}
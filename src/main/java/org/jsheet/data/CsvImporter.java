@@ -0,0 +1,255 @@
+package org.jsheet.data;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.jsheet.evaluation.Type;
+import org.jsheet.evaluation.Value;
+import org.jsheet.parser.ParseException;
+import org.jsheet.parser.ParserUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads a model from a CSV file using several threads.
+ * <p>
+ * A reader thread splits the file into chunks of rows, which are parsed
+ * into values on a pool of workers, so formulae of different chunks are
+ * parsed in parallel. Parsed chunks are appended to the model in the order
+ * of the file as they come. Only a few chunks are read ahead, so memory use
+ * doesn't depend on how fast the workers are, and a chunk is dropped once
+ * it is in the model.
+ * <p>
+ * Once the file is read, the formulae are evaluated as the final phase of
+ * the import, which takes the last {@value #EVALUATION_PROGRESS} percent of
+ * the progress. An import may be cancelled from any thread with
+ * {@link #cancel()}, including while formulae are evaluated.
+ */
+public class CsvImporter {
+    public static final int CHUNK_SIZE = 4096;
+    // Share of the progress taken by the evaluation of formulae
+    public static final int EVALUATION_PROGRESS = 10;
+
+    private final File file;
+    private final int parallelism;
+    private Type[] columnTypes = {};
+    private IntConsumer progressListener = progress -> {};
+    private volatile boolean cancelled = false;
+
+    public CsvImporter(File file) {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CsvImporter(File file, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("illegal parallelism");
+        this.file = file;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets expected types of values column by column, {@code null} or
+     * a missing entry means no hint. See {@link ParserUtils#parseValue(String, Type)}
+     * for the meaning of a hint.
+     */
+    public void setColumnTypes(Type... columnTypes) {
+        this.columnTypes = columnTypes.clone();
+    }
+
+    /**
+     * Sets a listener which is notified of the percentage of the file
+     * imported so far, on the importing thread.
+     */
+    public void setProgressListener(IntConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Makes an import in progress throw {@link CancellationException}
+     * as soon as possible.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Reads the file and constructs a model out of it.
+     *
+     * @throws CancellationException if the import was cancelled or
+     * the importing thread was interrupted.
+     */
+    public JSheetTableModel importModel()
+        throws IOException, CsvValidationException, ParseException
+    {
+        long length = Math.max(file.length(), 1);
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(2 * parallelism);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, CsvImporter::daemon);
+        Thread reader = daemon(() -> read(chunks, workers));
+        reader.start();
+        try {
+            JSheetTableModel model = null;
+            List<Cell> formulae = new ArrayList<>();
+            Chunk chunk;
+            while ((chunk = chunks.take()).rows != null) {
+                checkCancelled();
+                List<Value[]> rows = chunk.rows.get();
+                // The column count is determined by the first row
+                if (model == null)
+                    model = new JSheetTableModel(rows.get(0).length);
+                model.appendRows(rows, formulae);
+                progressListener.accept(
+                    (int) ((100 - EVALUATION_PROGRESS) * chunk.position / length));
+            }
+            checkCancelled();
+            if (model == null)
+                throw new IOException("empty file");
+            model.imported(formulae, new EvaluationProgress(formulae.size()));
+            checkCancelled();
+            progressListener.accept(100);
+            return model;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof CsvValidationException)
+                throw (CsvValidationException) cause;
+            if (cause instanceof ParseException)
+                throw (ParseException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private void read(BlockingQueue<Chunk> chunks, ExecutorService workers) {
+        try {
+            try (var input = new CountingInputStream(new FileInputStream(file));
+                 var reader = new CSVReader(new BufferedReader(new InputStreamReader(input))))
+            {
+                List<String[]> lines = new ArrayList<>(CHUNK_SIZE);
+                String[] line;
+                while (!cancelled && (line = reader.readNext()) != null) {
+                    lines.add(line);
+                    if (lines.size() == CHUNK_SIZE) {
+                        chunks.put(new Chunk(parse(lines, workers), input.count));
+                        lines = new ArrayList<>(CHUNK_SIZE);
+                    }
+                }
+                if (!lines.isEmpty())
+                    chunks.put(new Chunk(parse(lines, workers), input.count));
+            } catch (IOException | CsvValidationException | RuntimeException e) {
+                CompletableFuture<List<Value[]>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                chunks.put(new Chunk(failed, 0));
+            }
+            chunks.put(new Chunk(null, 0));
+        } catch (InterruptedException ignored) {
+            // The import is over
+        }
+    }
+
+    private Future<List<Value[]>> parse(List<String[]> lines, ExecutorService workers) {
+        return workers.submit(() -> {
+            List<Value[]> rows = new ArrayList<>(lines.size());
+            for (var line : lines) {
+                Value[] row = new Value[line.length];
+                for (int i = 0; i < line.length; i++) {
+                    String strValue = line[i];
+                    Type hint = i < columnTypes.length ? columnTypes[i] : null;
+                    row[i] = strValue.isEmpty() ? null : ParserUtils.parseValue(strValue, hint);
+                }
+                rows.add(row);
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Reports the evaluation after reading as the final phase of the import.
+     */
+    private class EvaluationProgress implements DependencyManager.Progress {
+        final int total;
+        int evaluated = 0;
+        int reported = 100 - EVALUATION_PROGRESS;
+
+        EvaluationProgress(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void evaluated(Cell cell) {
+            int progress = (int) (100 - EVALUATION_PROGRESS
+                + (long) EVALUATION_PROGRESS * ++evaluated / total);
+            // Only changes are reported, and 100 is left for the end
+            if (progress > reported && progress < 100) {
+                reported = progress;
+                progressListener.accept(progress);
+            }
+        }
+    }
+
+    private void checkCancelled() {
+        if (cancelled)
+            throw new CancellationException("import cancelled");
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "csv-import");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static class Chunk {
+        // Null marks the end of the file
+        final Future<List<Value[]>> rows;
+        // Number of bytes read once the chunk is complete
+        final long position;
+
+        Chunk(Future<List<Value[]>> rows, long position) {
+            this.rows = rows;
+            this.position = position;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+}
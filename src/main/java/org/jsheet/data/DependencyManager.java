@@ -0,0 +1,1032 @@
+package org.jsheet.data;
+
+import org.jsheet.evaluation.ErrorValue;
+import org.jsheet.evaluation.Result;
+import org.jsheet.expression.Range;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks which cells formulae depend on and re-evaluates them in
+ * the right order when cells change.
+ * <p>
+ * Plain references are stored as links between cells in a {@link CellGraph},
+ * while ranges are kept as rectangles in a {@link RangeIndex}, so a formula
+ * over a range costs the same regardless of how many cells the range spans.
+ * <p>
+ * State of a re-evaluation is kept in arrays indexed by ids of the graph.
+ * The arrays are stamped with the number of the re-evaluation instead of
+ * being cleared, so a small re-evaluation costs the same in a large sheet.
+ * <p>
+ * Formulae are kept in a topological order, which is repaired on every
+ * added formula by the algorithm of Pearce and Kelly, so a re-evaluation is
+ * a single sweep over the affected formulae in that order. Inserting a cycle
+ * is detected when the formula is added, the order is given up then and
+ * rebuilt once an edit might have broken the cycle.
+ * <p>
+ * Re-evaluation is serial by default. Given a {@link ForkJoinPool}, large
+ * re-evaluations evaluate independent formulae in parallel.
+ */
+class DependencyManager {
+    // Smaller re-evaluations are not worth going parallel
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private static final Progress NO_PROGRESS = new Progress() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void evaluated(Cell cell) {
+        }
+    };
+
+    private final JSheetTableModel model;
+
+    // Dependency graph
+    private final CellGraph graph = new CellGraph();
+    private final RangeIndex ranges = new RangeIndex();
+
+    // Sums over the ranges formulae use
+    private final RangeAggregates aggregates;
+
+    // Computation state, kept per id of the graph. A cell takes part in
+    // the current evaluation if its stamp is the current epoch, the rest
+    // of its state is only valid then.
+    private int epoch = 0;
+    private int[] stamps = new int[0];
+    private boolean[] evaluated = new boolean[0];
+    // Kahn's algorithm: number of distinct unevaluated cells a cell references
+    // and cells which reference it, the last one to skip duplicates
+    private int[] pending = new int[0];
+    private IntList[] successors = new IntList[0];
+    private int[] lastSuccessor = new int[0];
+    // Tarjan's algorithm: 1-based index of a visit or 0, low-link and whether
+    // the cell is on the stack
+    private int[] index = new int[0];
+    private int[] lowLink = new int[0];
+    private boolean[] onStack = new boolean[0];
+    // Cells taking part in the current evaluation
+    private int[] invalid = new int[0];
+    private int invalidCount = 0;
+
+    // Topological order of formulae, kept per id of the graph. A formula
+    // comes after every formula it references unless the order is given up.
+    private int[] order = new int[0];
+    private int nextOrder = 0;
+    private boolean ordered = true;
+    // Whether an edit might have broken a cycle, so the order is worth rebuilding
+    private boolean reorder = false;
+    // Whether a formula was on a cycle when it was evaluated last
+    private boolean[] circular = new boolean[0];
+    // Whether a formula waits for evaluation on demand, see markStale
+    private boolean[] stale = new boolean[0];
+    // Cells visited by the current search for repairing the order
+    private int[] marks = new int[0];
+    private int mark = 0;
+
+    // Pool for parallel re-evaluation or null to re-evaluate serially
+    private ForkJoinPool pool;
+
+    // Whether a change only affects formulae which read it, see setDynamic
+    private boolean dynamic = false;
+
+    // Observer of the current re-evaluation
+    private Progress progress = NO_PROGRESS;
+
+    DependencyManager(JSheetTableModel model) {
+        this.model = model;
+        this.aggregates = new RangeAggregates(model);
+    }
+
+    /**
+     * Adds {@code formula} at {@code cell} to the end of the topological
+     * order and moves formulae which already reference the cell after it.
+     */
+    void addFormula(Cell cell, Formula formula) {
+        link(cell, formula);
+        int u = graph.id(cell);
+        circular[u] = false;
+        stale[u] = false;
+        if (nextOrder == Integer.MAX_VALUE)
+            rebuildOrder();
+        order[u] = nextOrder++;
+        if (ordered && !repairOrder(u))
+            ordered = false;
+    }
+
+    /**
+     * Adds loaded formulae at once and builds the topological order
+     * in a single pass.
+     */
+    void addFormulae(Collection<Cell> cells) {
+        for (var cell : cells)
+            link(cell, model.getFormulaAt(cell.row, cell.column));
+        rebuildOrder();
+    }
+
+    private void link(Cell cell, Formula formula) {
+        graph.addFormula(cell);
+        int id = graph.id(cell);
+        for (var ref : formula.getReferences()) {
+            if (formula.isResolved(ref))
+                graph.addLink(cell, formula.getCell(ref));
+        }
+        for (var range : formula.getRanges()) {
+            if (!formula.isResolved(range))
+                continue;
+            Cell first = formula.getCell(range.getFirst());
+            Cell last = formula.getCell(range.getLast());
+            ranges.add(id, first, last);
+            aggregates.retain(first, last);
+        }
+        ensureNodeCapacity();
+    }
+
+    /**
+     * Removes {@code formula} at {@code cell}. The topological order stays
+     * valid since no link is added.
+     */
+    void removeFormula(Cell cell, Formula formula) {
+        int id = graph.id(cell);
+        if (circular[id]) {
+            // The formula leaves its cycle, which might be gone then
+            circular[id] = false;
+            if (!ordered)
+                reorder = true;
+        }
+        for (var ref : formula.getReferences()) {
+            if (formula.isResolved(ref))
+                graph.removeLink(cell, formula.getCell(ref));
+        }
+        for (var range : formula.getRanges()) {
+            if (!formula.isResolved(range))
+                continue;
+            Cell first = formula.getCell(range.getFirst());
+            Cell last = formula.getCell(range.getLast());
+            ranges.remove(id, first, last);
+            aggregates.release(first, last);
+        }
+        graph.removeFormula(cell);
+    }
+
+    private void ensureNodeCapacity() {
+        int capacity = graph.capacity();
+        if (order.length < capacity) {
+            int length = Math.max(capacity, 2 * order.length);
+            order = Arrays.copyOf(order, length);
+            circular = Arrays.copyOf(circular, length);
+            stale = Arrays.copyOf(stale, length);
+            marks = Arrays.copyOf(marks, length);
+        }
+    }
+
+    /**
+     * Orders all formulae from scratch by Kahn's algorithm. Formulae which
+     * are on a cycle or depend on one go last in no particular order,
+     * the order is given up then.
+     */
+    private void rebuildOrder() {
+        ensureNodeCapacity();
+        int capacity = graph.capacity();
+        int[] inDegree = new int[capacity];
+        int formulaCount = 0;
+        for (int v = 0; v < capacity; v++) {
+            if (!graph.isFormula(v))
+                continue;
+            formulaCount++;
+            forEachDependent(v, u -> inDegree[u]++);
+        }
+        IntList queue = new IntList();
+        for (int v = 0; v < capacity; v++) {
+            if (graph.isFormula(v) && inDegree[v] == 0)
+                queue.add(v);
+        }
+        nextOrder = 0;
+        for (int head = 0; head < queue.size(); head++) {
+            int v = queue.get(head);
+            order[v] = nextOrder++;
+            forEachDependent(v, u -> {
+                if (--inDegree[u] == 0)
+                    queue.add(u);
+            });
+        }
+        ordered = queue.size() == formulaCount;
+        if (!ordered) {
+            for (int v = 0; v < capacity; v++) {
+                if (graph.isFormula(v) && inDegree[v] > 0) {
+                    order[v] = nextOrder++;
+                    // Might be on a cycle, so removing it might break one
+                    circular[v] = true;
+                }
+            }
+        }
+        reorder = false;
+    }
+
+    /**
+     * Moves formulae which depend on {@code u} but come before it after it,
+     * one link at a time.
+     *
+     * @return false if {@code u} is on a cycle, so there is no order.
+     */
+    private boolean repairOrder(int u) {
+        IntList dependents = new IntList();
+        forEachDependent(u, dependents::add);
+        for (int i = 0; i < dependents.size(); i++) {
+            int v = dependents.get(i);
+            if (v == u)
+                return false;
+            if (order[v] < order[u] && !repairLink(u, v))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The algorithm of Pearce and Kelly for a link from {@code u} to
+     * {@code v} which comes before it. Only formulae ordered between the two
+     * are searched: those which depend on {@code v} and those {@code u}
+     * depends on. The latter are moved before the former, reusing their
+     * positions in the order.
+     *
+     * @return false if {@code v} leads back to {@code u}, which is a cycle.
+     */
+    private boolean repairLink(int u, int v) {
+        int lower = order[v];
+        int upper = order[u];
+        if (++mark == 0) {
+            Arrays.fill(marks, 0);
+            mark = 1;
+        }
+        IntList forward = new IntList();
+        IntList stack = new IntList();
+        marks[v] = mark;
+        stack.add(v);
+        while (stack.size() > 0) {
+            int w = stack.removeLast();
+            forward.add(w);
+            IntList dependents = new IntList();
+            forEachDependent(w, dependents::add);
+            for (int i = 0; i < dependents.size(); i++) {
+                int x = dependents.get(i);
+                if (x == u)
+                    return false;
+                if (marks[x] != mark && order[x] < upper) {
+                    marks[x] = mark;
+                    stack.add(x);
+                }
+            }
+        }
+        IntList backward = new IntList();
+        marks[u] = mark;
+        stack.add(u);
+        while (stack.size() > 0) {
+            int w = stack.removeLast();
+            backward.add(w);
+            forEachReferencedFormula(w, x -> {
+                if (marks[x] != mark && order[x] > lower) {
+                    marks[x] = mark;
+                    stack.add(x);
+                }
+            });
+        }
+        int[] moved = new int[backward.size() + forward.size()];
+        int[] positions = new int[moved.length];
+        int count = 0;
+        for (int i = 0; i < backward.size(); i++)
+            moved[count++] = backward.get(i);
+        for (int i = 0; i < forward.size(); i++)
+            moved[count++] = forward.get(i);
+        sortByOrder(moved, 0, backward.size());
+        sortByOrder(moved, backward.size(), moved.length);
+        for (int i = 0; i < moved.length; i++)
+            positions[i] = order[moved[i]];
+        Arrays.sort(positions);
+        for (int i = 0; i < moved.length; i++)
+            order[moved[i]] = positions[i];
+        return true;
+    }
+
+    private void sortByOrder(int[] ids, int from, int to) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++)
+            keys[i - from] = (long) order[ids[i]] << 32 | ids[i];
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++)
+            ids[i] = (int) keys[i - from];
+    }
+
+    /**
+     * Calls {@code action} for every formula which references {@code id},
+     * either directly or through a range, possibly more than once.
+     */
+    private void forEachDependent(int id, IntConsumer action) {
+        graph.forEachReferencedBy(id, action);
+        Cell cell = graph.cell(id);
+        ranges.forEachContaining(cell.row, cell.column, action);
+    }
+
+    /**
+     * Same as {@link #forEachDependent(int, IntConsumer)} unless dependencies
+     * are dynamic. Then it skips formulae which didn't read {@code id} by
+     * a reference when they were evaluated last, since their results don't
+     * depend on it. Formulae with a range containing it are never skipped.
+     */
+    private void forEachAffected(int id, IntConsumer action) {
+        if (!dynamic) {
+            forEachDependent(id, action);
+            return;
+        }
+        Cell cell = graph.cell(id);
+        graph.forEachReferencedBy(id, u -> {
+            Cell dependent = graph.cell(u);
+            if (model.getFormulaAt(dependent.row, dependent.column).hasRead(cell))
+                action.accept(u);
+        });
+        ranges.forEachContaining(cell.row, cell.column, action);
+    }
+
+    /**
+     * Calls {@code action} for every formula referenced by {@code u},
+     * either directly or through a range, possibly more than once.
+     */
+    private void forEachReferencedFormula(int u, IntConsumer action) {
+        graph.forEachReference(u, v -> {
+            if (graph.isFormula(v))
+                action.accept(v);
+        });
+        Cell cell = graph.cell(u);
+        Formula formula = model.getFormulaAt(cell.row, cell.column);
+        for (Range range : formula.getRanges()) {
+            if (!formula.isResolved(range))
+                continue;
+            Cell first = formula.getCell(range.getFirst());
+            Cell last = formula.getCell(range.getLast());
+            long area = (long) (last.row - first.row + 1) * (last.column - first.column + 1);
+            if (area <= graph.capacity()) {
+                for (int row = first.row; row <= last.row; row++) {
+                    for (int column = first.column; column <= last.column; column++) {
+                        int v = graph.id(row, column);
+                        if (v >= 0 && graph.isFormula(v))
+                            action.accept(v);
+                    }
+                }
+            } else {
+                // The range is large, look it up the other way round
+                for (int v = 0; v < graph.capacity(); v++) {
+                    if (!graph.isFormula(v))
+                        continue;
+                    Cell c = graph.cell(v);
+                    if (first.row <= c.row && c.row <= last.row
+                        && first.column <= c.column && c.column <= last.column)
+                    {
+                        action.accept(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a new evaluation with no cells taking part in it.
+     */
+    private void beginEvaluation() {
+        int capacity = graph.capacity();
+        if (stamps.length < capacity) {
+            int length = Math.max(capacity, 2 * stamps.length);
+            stamps = Arrays.copyOf(stamps, length);
+            evaluated = new boolean[length];
+            pending = new int[length];
+            successors = new IntList[length];
+            lastSuccessor = new int[length];
+            index = new int[length];
+            lowLink = new int[length];
+            onStack = new boolean[length];
+            invalid = new int[length];
+        }
+        if (++epoch == 0) {
+            // Wrapped around, old stamps might look current
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+        invalidCount = 0;
+    }
+
+    /**
+     * Makes {@code id} take part in the current evaluation.
+     *
+     * @return false if it already does.
+     */
+    private boolean invalidate(int id) {
+        if (stamps[id] == epoch)
+            return false;
+        stamps[id] = epoch;
+        evaluated[id] = false;
+        pending[id] = 0;
+        successors[id] = null;
+        lastSuccessor[id] = -1;
+        index[id] = 0;
+        onStack[id] = false;
+        invalid[invalidCount++] = id;
+        return true;
+    }
+
+    private boolean isInvalid(int id) {
+        return stamps[id] == epoch;
+    }
+
+    /**
+     * Makes every formula which transitively depends on any of {@code cells},
+     * including formulae among {@code cells} themselves, take part in
+     * the current evaluation.
+     */
+    private void invalidateDependentOn(Collection<Cell> cells) {
+        for (var cell : cells) {
+            int id = graph.id(cell);
+            if (id >= 0 && graph.isFormula(id))
+                invalidate(id);
+        }
+        // Changed cells might not be in the graph if only ranges refer to them
+        for (var cell : cells)
+            invalidateReferencing(cell, graph.id(cell));
+        // Invalid cells double as the queue of the breadth-first search
+        for (int head = 0; head < invalidCount; head++) {
+            int v = invalid[head];
+            invalidateReferencing(graph.cell(v), v);
+        }
+    }
+
+    /**
+     * @param id is the id of {@code cell} or -1 if it's not in the graph.
+     */
+    private void invalidateReferencing(Cell cell, int id) {
+        if (id >= 0) {
+            forEachAffected(id, this::invalidate);
+        } else {
+            ranges.forEachContaining(cell.row, cell.column, this::invalidate);
+        }
+    }
+
+    /**
+     * Re-evaluates every formula which transitively depends on {@code changed} cells.
+     * <p>
+     * While the formulae are ordered and there is no pool, the affected
+     * formulae are found and evaluated in a single sweep in the topological
+     * order. Otherwise they are found first and evaluated in the order of
+     * dependencies by Kahn's algorithm. Formulae which are on a cycle or
+     * depend on one never become ready then, they are evaluated by
+     * components, just like by {@link #evaluateAll}. None of it recurses,
+     * so long chains of references don't overflow the stack.
+     *
+     * @return the re-evaluated cells.
+     */
+    Collection<Cell> reevaluateAll(Collection<Cell> changed) {
+        List<Cell> result = new ArrayList<>();
+        reevaluateAll(changed, new Progress() {
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public void evaluated(Cell cell) {
+                result.add(cell);
+            }
+        }, new ArrayList<>());
+        return result;
+    }
+
+    /**
+     * Same as {@link #reevaluateAll(Collection)}, but reports re-evaluated
+     * cells to {@code progress} as it goes and stops early once cancelled.
+     *
+     * @param remaining receives formulae which were found to need
+     *                  re-evaluation but were not re-evaluated. Re-evaluating
+     *                  them later as changed cells completes the job.
+     */
+    void reevaluateAll(Collection<Cell> changed, Progress progress, Collection<Cell> remaining) {
+        if (reorder)
+            rebuildOrder();
+        beginEvaluation();
+        this.progress = progress;
+        try {
+            if (ordered && pool == null) {
+                sweep(changed);
+            } else {
+                // Find all cells that need re-computation and invalidate them
+                invalidateDependentOn(changed);
+                boolean parallel = pool != null && invalidCount >= PARALLEL_THRESHOLD;
+                if (evaluateLevels(parallel) < invalidCount && !progress.isCancelled())
+                    evaluateComponents();
+            }
+        } finally {
+            this.progress = NO_PROGRESS;
+        }
+        for (int i = 0; i < invalidCount; i++) {
+            if (!evaluated[invalid[i]])
+                remaining.add(graph.cell(invalid[i]));
+        }
+    }
+
+    /**
+     * Observes a re-evaluation on the thread running it.
+     */
+    interface Progress {
+        /**
+         * @return whether the re-evaluation should stop. It's checked before
+         * each formula of the sweep and before each level or component otherwise.
+         */
+        boolean isCancelled();
+
+        /**
+         * Called once {@code cell} is re-evaluated.
+         */
+        void evaluated(Cell cell);
+    }
+
+    /**
+     * Invalidates formulae which depend on {@code changed} cells and evaluates
+     * them in the topological order as they come. By the time a formula is
+     * the first in the queue, each formula it references either comes before
+     * it and is evaluated already or doesn't depend on the changed cells.
+     */
+    private void sweep(Collection<Cell> changed) {
+        OrderedQueue queue = new OrderedQueue();
+        IntConsumer enqueue = u -> {
+            if (invalidate(u))
+                queue.add(u);
+        };
+        for (var cell : changed) {
+            int id = graph.id(cell);
+            if (id >= 0 && graph.isFormula(id))
+                enqueue.accept(id);
+        }
+        for (var cell : changed) {
+            int id = graph.id(cell);
+            if (id >= 0)
+                forEachAffected(id, enqueue);
+            else
+                ranges.forEachContaining(cell.row, cell.column, enqueue);
+        }
+        while (queue.size() > 0 && !progress.isCancelled()) {
+            int v = queue.poll();
+            evaluate(v);
+            evaluated[v] = true;
+            progress.evaluated(graph.cell(v));
+            forEachAffected(v, enqueue);
+        }
+    }
+
+    /**
+     * A binary heap of ids ordered by {@link #order}.
+     */
+    private class OrderedQueue {
+        private int[] heap = new int[16];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        void add(int id) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, 2 * size);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (order[heap[parent]] <= order[id])
+                    break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = id;
+        }
+
+        int poll() {
+            int result = heap[0];
+            int last = heap[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && order[heap[child + 1]] < order[heap[child]])
+                    child++;
+                if (order[last] <= order[heap[child]])
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return result;
+        }
+    }
+
+    /**
+     * Evaluates every formula in {@code cells} exactly once, regardless of
+     * the current results. This is meant for loading a whole sheet at once,
+     * when the dependency graph is already complete, so the formulae are
+     * evaluated by components in a single pass.
+     */
+    void evaluateAll(Collection<Cell> cells) {
+        evaluateAll(cells, NO_PROGRESS);
+    }
+
+    /**
+     * Same as {@link #evaluateAll(Collection)}, but reports evaluated cells
+     * to {@code progress} as it goes and stops early once cancelled.
+     */
+    void evaluateAll(Collection<Cell> cells, Progress progress) {
+        beginEvaluation();
+        for (var cell : cells)
+            invalidate(graph.id(cell));
+        this.progress = progress;
+        try {
+            evaluateComponents();
+        } finally {
+            this.progress = NO_PROGRESS;
+        }
+    }
+
+    /**
+     * Splits unevaluated cells into strongly connected components.
+     * Components come out in the order of dependencies, so each of them is
+     * evaluated after everything it references. Every formula of a component
+     * which forms a cycle fails with a circular dependency.
+     */
+    private void evaluateComponents() {
+        for (var component : stronglyConnectedComponents()) {
+            if (progress.isCancelled())
+                return;
+            boolean circular = component.size() > 1
+                || getReferencedInvalid(component.get(0)).contains(component.get(0));
+            for (int i = 0; i < component.size(); i++) {
+                int u = component.get(i);
+                if (circular) {
+                    Cell cell = graph.cell(u);
+                    this.circular[u] = true;
+                    stale[u] = false;
+                    model.getFormulaAt(cell.row, cell.column)
+                        .setResult(Result.failure(ErrorValue.CIRCULAR));
+                    aggregates.update(cell);
+                } else {
+                    evaluate(u);
+                }
+                evaluated[u] = true;
+                progress.evaluated(graph.cell(u));
+            }
+        }
+    }
+
+    private void evaluate(int u) {
+        Cell cell = graph.cell(u);
+        circular[u] = false;
+        stale[u] = false;
+        model.getFormulaAt(cell.row, cell.column).eval(model);
+        aggregates.update(cell);
+    }
+
+    /**
+     * Tarjan's algorithm over the cells taking part in the current evaluation
+     * which are not evaluated yet, without recursion.
+     *
+     * @return strongly connected components, every component comes after
+     * the components it references.
+     */
+    private List<IntList> stronglyConnectedComponents() {
+        return new ComponentSearch().run();
+    }
+
+    private class ComponentSearch {
+        final List<IntList> components = new ArrayList<>();
+        final IntList stack = new IntList();
+        final Deque<Frame> frames = new ArrayDeque<>();
+        int visited = 0;
+
+        List<IntList> run() {
+            for (int i = 0; i < invalidCount; i++) {
+                int root = invalid[i];
+                if (evaluated[root] || index[root] != 0)
+                    continue;
+                enter(root);
+                while (!frames.isEmpty()) {
+                    Frame frame = frames.peek();
+                    int u = frame.cell;
+                    if (frame.next < frame.successors.size()) {
+                        int v = frame.successors.get(frame.next++);
+                        if (index[v] == 0)
+                            enter(v);
+                        else if (onStack[v])
+                            lowLink[u] = Math.min(lowLink[u], index[v]);
+                        continue;
+                    }
+                    frames.pop();
+                    if (!frames.isEmpty()) {
+                        int parent = frames.peek().cell;
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[u]);
+                    }
+                    if (lowLink[u] == index[u])
+                        popComponent(u);
+                }
+            }
+            return components;
+        }
+
+        private void enter(int u) {
+            index[u] = ++visited;
+            lowLink[u] = index[u];
+            stack.add(u);
+            onStack[u] = true;
+            IntList successors = new IntList();
+            IntList referenced = getReferencedInvalid(u);
+            for (int i = 0; i < referenced.size(); i++) {
+                if (!evaluated[referenced.get(i)])
+                    successors.add(referenced.get(i));
+            }
+            frames.push(new Frame(u, successors));
+        }
+
+        private void popComponent(int root) {
+            IntList component = new IntList();
+            int v;
+            do {
+                v = stack.removeLast();
+                onStack[v] = false;
+                component.add(v);
+            } while (v != root);
+            components.add(component);
+        }
+    }
+
+    private static class Frame {
+        final int cell;
+        final IntList successors;
+        // Index of the next successor to visit
+        int next = 0;
+
+        Frame(int cell, IntList successors) {
+            this.cell = cell;
+            this.successors = successors;
+        }
+    }
+
+    /**
+     * Marks every formula which transitively depends on {@code changed} cells,
+     * including formulae among {@code changed} cells themselves, as stale
+     * instead of re-evaluating it. Formulae affected by a stale formula are
+     * always stale, so the search stops at formulae which are stale already.
+     *
+     * @return formulae which have become stale.
+     */
+    Collection<Cell> markStale(Collection<Cell> changed) {
+        IntList queue = new IntList();
+        IntConsumer mark = u -> {
+            if (!stale[u]) {
+                stale[u] = true;
+                queue.add(u);
+            }
+        };
+        for (var cell : changed) {
+            int id = graph.id(cell);
+            if (id >= 0 && graph.isFormula(id))
+                mark.accept(id);
+            else if (id >= 0)
+                forEachAffected(id, mark);
+            else
+                ranges.forEachContaining(cell.row, cell.column, mark);
+        }
+        List<Cell> result = new ArrayList<>(queue.size());
+        for (int head = 0; head < queue.size(); head++) {
+            int v = queue.get(head);
+            result.add(graph.cell(v));
+            forEachAffected(v, mark);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the formula at {@code cell} if it's stale, after the stale
+     * formulae it transitively depends on.
+     */
+    void refresh(Cell cell) {
+        int id = graph.id(cell);
+        if (id < 0 || !graph.isFormula(id) || !stale[id])
+            return;
+        beginEvaluation();
+        invalidate(id);
+        // Invalid cells double as the queue of the breadth-first search
+        for (int head = 0; head < invalidCount; head++) {
+            forEachReferencedFormula(invalid[head], v -> {
+                if (stale[v])
+                    invalidate(v);
+            });
+        }
+        evaluateInvalid();
+    }
+
+    /**
+     * Evaluates all stale formulae.
+     */
+    void refreshAll() {
+        beginEvaluation();
+        for (int id = 0; id < graph.capacity(); id++) {
+            if (graph.isFormula(id) && stale[id])
+                invalidate(id);
+        }
+        evaluateInvalid();
+    }
+
+    private void evaluateInvalid() {
+        if (invalidCount > 0 && evaluateLevels(false) < invalidCount)
+            evaluateComponents();
+    }
+
+    /**
+     * Must be called whenever the value of a cell is replaced.
+     */
+    void valueChanged(Cell cell) {
+        aggregates.update(cell);
+    }
+
+    /**
+     * @see JSheetTableModel#getMaintainedSum(Cell, Cell)
+     */
+    OptionalDouble getMaintainedSum(Cell first, Cell last) {
+        return aggregates.getSum(first, last);
+    }
+
+    void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @see JSheetTableModel#setDynamicDependencies(boolean)
+     */
+    void setDynamic(boolean dynamic) {
+        this.dynamic = dynamic;
+    }
+
+    /**
+     * Splits invalid cells into topological levels with Kahn's algorithm
+     * and evaluates them level by level. Formulae of the same level don't
+     * depend on each other, so with {@code parallel} large levels are
+     * evaluated on {@link #pool} in parallel.
+     *
+     * @return the number of evaluated cells, the rest are on a cycle
+     * or depend on one, or the evaluation is cancelled, and are left
+     * unevaluated.
+     */
+    private int evaluateLevels(boolean parallel) {
+        IntList level = new IntList();
+        for (int i = 0; i < invalidCount; i++) {
+            int u = invalid[i];
+            IntList predecessors = getReferencedInvalid(u);
+            for (int j = 0; j < predecessors.size(); j++) {
+                int v = predecessors.get(j);
+                if (lastSuccessor[v] == u)
+                    continue;
+                lastSuccessor[v] = u;
+                if (successors[v] == null)
+                    successors[v] = new IntList();
+                successors[v].add(u);
+                pending[u]++;
+            }
+            if (pending[u] == 0)
+                level.add(u);
+        }
+        int count = 0;
+        while (level.size() > 0 && !progress.isCancelled()) {
+            if (parallel && level.size() > EvaluationTask.THRESHOLD) {
+                pool.invoke(new EvaluationTask(level, 0, level.size()));
+            } else {
+                for (int i = 0; i < level.size(); i++)
+                    evaluate(level.get(i));
+            }
+            count += level.size();
+            IntList next = new IntList();
+            for (int i = 0; i < level.size(); i++) {
+                int v = level.get(i);
+                evaluated[v] = true;
+                progress.evaluated(graph.cell(v));
+                if (successors[v] == null)
+                    continue;
+                for (int j = 0; j < successors[v].size(); j++) {
+                    int u = successors[v].get(j);
+                    if (--pending[u] == 0)
+                        next.add(u);
+                }
+            }
+            level = next;
+        }
+        return count;
+    }
+
+    private class EvaluationTask extends RecursiveAction {
+        static final int THRESHOLD = 64;
+
+        final IntList cells;
+        final int from;
+        final int to;
+
+        EvaluationTask(IntList cells, int from, int to) {
+            this.cells = cells;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    evaluate(cells.get(i));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                new EvaluationTask(cells, from, middle),
+                new EvaluationTask(cells, middle, to)
+            );
+        }
+    }
+
+    /**
+     * @return cells referenced by {@code u}, either directly or through a range,
+     * which take part in the current re-evaluation. Cells that hold plain values
+     * or don't need re-computation are left out.
+     */
+    private IntList getReferencedInvalid(int u) {
+        IntList result = new IntList();
+        graph.forEachReference(u, v -> {
+            if (isInvalid(v))
+                result.add(v);
+        });
+        Cell cell = graph.cell(u);
+        Formula formula = model.getFormulaAt(cell.row, cell.column);
+        for (Range range : formula.getRanges()) {
+            if (!formula.isResolved(range))
+                continue;
+            Cell first = formula.getCell(range.getFirst());
+            Cell last = formula.getCell(range.getLast());
+            long area = (long) (last.row - first.row + 1) * (last.column - first.column + 1);
+            if (area <= invalidCount) {
+                for (int row = first.row; row <= last.row; row++) {
+                    for (int column = first.column; column <= last.column; column++) {
+                        int v = graph.id(row, column);
+                        if (v >= 0 && isInvalid(v))
+                            result.add(v);
+                    }
+                }
+            } else {
+                // The range is large, look it up the other way round
+                for (int i = 0; i < invalidCount; i++) {
+                    Cell v = graph.cell(invalid[i]);
+                    if (first.row <= v.row && v.row <= last.row
+                        && first.column <= v.column && v.column <= last.column)
+                    {
+                        result.add(invalid[i]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A growable list of {@code int}s.
+     */
+    private static class IntList {
+        private int[] elements = new int[4];
+        private int size = 0;
+
+        void add(int element) {
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, 2 * size);
+            elements[size++] = element;
+        }
+
+        int get(int index) {
+            return elements[index];
+        }
+
+        int removeLast() {
+            return elements[--size];
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(int element) {
+            for (int i = 0; i < size; i++) {
+                if (elements[i] == element)
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -3,46 +3,147 @@ package org.jsheet.data;
 import org.jsheet.expression.*;
 import org.jsheet.evaluation.EvaluationException;
 import org.jsheet.evaluation.Evaluator;
+import org.jsheet.evaluation.ExpressionCompiler;
 import org.jsheet.evaluation.Result;
 import org.jsheet.evaluation.Value;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 
+/**
+ * A formula in a cell. The parsed definition is a {@link FormulaTemplate},
+ * which may be shared by several formulae, while the result of evaluation
+ * belongs to this formula.
+ * <p>
+ * A formula copied to other cells, e.g. filled down a column, keeps sharing
+ * the template of the original one. Instead of a copy of the expression it
+ * only holds the shift of its cell from the cell the template was defined in,
+ * which applies to all relative references of the template.
+ */
 @SuppressWarnings("ExcessiveLambdaUsage")
 public class Formula {
-    public final String originalDefinition;
+    private final FormulaTemplate template;
 
-    private final Expression expression;
-    private final List<Reference> references;
-    private final List<Range> ranges;
+    // Shift of the cell of this formula relative to the template
+    private final int rowShift;
+    private final int columnShift;
 
-    private Result result;
+    // The model references are resolved against or null before resolution
+    private JSheetTableModel model;
 
-    public Formula(String originalDefinition, Expression expression,
-        List<Reference> references, List<Range> ranges)
-    {
-        this.originalDefinition = originalDefinition;
-        this.expression = expression;
-        this.references = references;
-        this.ranges = ranges;
+    // Definition of a shifted formula, computed on request
+    private String definition;
+
+    /**
+     * Number of evaluations after which the expression gets compiled.
+     */
+    public static final int COMPILATION_THRESHOLD = 8;
+
+    // Read by the event dispatch thread while re-evaluated in the background
+    private volatile Result result;
+
+    // Stops counting once past the threshold
+    private int evaluationCount = 0;
+
+    // References read by the last evaluation, a bit per index of a reference,
+    // the highest bit standing for all the indices which don't fit
+    private long reads = ALL_READ;
+    private static final long ALL_READ = -1L;
+
+    /**
+     * Creates a formula whose references are not resolved yet.
+     */
+    public Formula(FormulaTemplate template) {
+        this(template, 0, 0);
     }
 
     /**
-     * @return a list of all references in this formula, including the first
-     * and the last references for each range (e.g. A1 and A10 for A1:A10)
+     * Creates a formula which shares {@code template} with its references
+     * shifted, e.g. one read from a file.
+     */
+    Formula(FormulaTemplate template, int rowShift, int columnShift) {
+        this.template = template;
+        this.rowShift = rowShift;
+        this.columnShift = columnShift;
+    }
+
+    public FormulaTemplate getTemplate() {
+        return template;
+    }
+
+    int getRowShift() {
+        return rowShift;
+    }
+
+    int getColumnShift() {
+        return columnShift;
+    }
+
+    public String getDefinition() {
+        if (rowShift == 0 && columnShift == 0)
+            return template.getDefinition();
+        if (definition == null)
+            definition = "= " + materialize();
+        return definition;
+    }
+
+    /**
+     * @return the expression of the template, whose references are bound
+     * to cells by {@link #getCell(Reference)}.
+     */
+    public Expression getExpression() {
+        return template.getExpression();
+    }
+
+    /**
+     * @return the expression with references named relative to the cell of
+     * this formula, which is a copy of the template expression if it's shifted.
+     */
+    private Expression materialize() {
+        if (rowShift == 0 && columnShift == 0)
+            return getExpression();
+        return getExpression().accept(new ExpressionShifter(model, 0, 0));
+    }
+
+    /**
+     * @see FormulaTemplate#getReferences()
      */
     public List<Reference> getReferences() {
-        return Collections.unmodifiableList(references);
+        return template.getReferences();
     }
 
     /**
-     * @return a list of all ranges in this formula.
+     * @see FormulaTemplate#getRanges()
      */
     public List<Range> getRanges() {
-        return Collections.unmodifiableList(ranges);
+        return template.getRanges();
+    }
+
+    /**
+     * @return the cell {@code reference} of this formula points to
+     * or {@code null} if it is unresolved.
+     */
+    public Cell getCell(Reference reference) {
+        return model != null ? reference.resolve(model, rowShift, columnShift) : null;
+    }
+
+    public boolean isResolved(Reference reference) {
+        return model != null && reference.isResolvable(model, rowShift, columnShift);
+    }
+
+    public boolean isResolved(Range range) {
+        return isResolved(range.getFirst()) && isResolved(range.getLast());
+    }
+
+    /**
+     * @return the name of {@code reference} relative to the cell of this formula.
+     */
+    public String getName(Reference reference) {
+        return reference.getName(rowShift, columnShift);
+    }
+
+    public String getName(Range range) {
+        return String.format("%s:%s", getName(range.getFirst()), getName(range.getLast()));
     }
 
     /**
@@ -51,13 +152,23 @@ public class Formula {
      * The user must call {@link Formula#resolveReferences(JSheetTableModel)}
      * before calling this method to resolve all references that occur in
      * the current expression.
+     * <p>
+     * The expression is interpreted by {@link Evaluator} at first. Once it has
+     * been evaluated {@link #COMPILATION_THRESHOLD} times, it is compiled
+     * with {@link ExpressionCompiler} and the compiled form is used from then on.
+     * The compiled form belongs to the template, see {@link FormulaTemplate#getCompiled()}.
      */
     public void eval(JSheetTableModel model) {
+        if (evaluationCount <= COMPILATION_THRESHOLD)
+            evaluationCount++;
+        reads = 0;
         try {
-            Value value = expression.evaluate(new Evaluator(model));
-            result = Result.success(value);
+            Value value = evaluationCount > COMPILATION_THRESHOLD
+                ? template.getCompiled().evaluate(model, this)
+                : getExpression().evaluate(new Evaluator(model, this));
+            result = Result.of(value);
         } catch (EvaluationException e) {
-            result = Result.failure(e.getMessage());
+            result = Result.failure(e.getError());
         }
     }
 
@@ -68,25 +179,83 @@ public class Formula {
         return result;
     }
 
+    /**
+     * Sets a result which doesn't come from evaluation, so it's
+     * considered to depend on every reference.
+     */
     public void setResult(Result result) {
         this.result = result;
+        reads = ALL_READ;
     }
 
     /**
-     * Tries to resolve all references that occur in the current expression.
+     * Records that the evaluation of this formula reads {@code reference},
+     * e.g. it's not in a branch which is not taken.
+     */
+    public void markRead(Reference reference) {
+        reads |= readBit(reference.getIndex());
+    }
+
+    /**
+     * @return whether the last evaluation read {@code cell} by a reference
+     * or this formula has not been evaluated yet. References which bound
+     * ranges don't count, see {@link #markRead(Reference)}.
+     */
+    boolean hasRead(Cell cell) {
+        if (reads == ALL_READ)
+            return true;
+        List<Reference> references = getReferences();
+        for (int i = 0; i < references.size(); i++) {
+            if ((reads & readBit(i)) != 0 && cell.equals(getCell(references.get(i))))
+                return true;
+        }
+        return false;
+    }
+
+    private static long readBit(int index) {
+        return 1L << Math.min(index, Long.SIZE - 1);
+    }
+
+    /**
+     * Resolves all references that occur in the current expression against
+     * the bounds of {@code model}.
      */
     void resolveReferences(JSheetTableModel model) {
-        Objects.requireNonNull(references, () -> "getting references of an incorrect formula");
-        references.forEach(r -> r.resolve(model));
+        this.model = model;
     }
 
     /**
      * @return a copy of this formula with cell references
      * shifted by {@code rowShift} and {@code columnShift} respectively.
+     * The copy shares the template unless some of the references end up
+     * out of bounds of {@code model}, in which case they are replaced by
+     * {@link Reference#OUT_OF_BOUNDS_REFERENCE_NAME} in a new template.
      */
     public Formula shift(JSheetTableModel model, int rowShift, int columnShift) {
+        int newRowShift = this.rowShift + rowShift;
+        int newColumnShift = this.columnShift + columnShift;
+        for (var reference : getReferences()) {
+            if (!reference.isCellName())
+                continue;
+            // Unresolved references are not shifted, see ExpressionShifter
+            if (!reference.isResolvable(model, this.rowShift, this.columnShift)
+                || !reference.isResolvable(model, newRowShift, newColumnShift))
+            {
+                return copy(model, rowShift, columnShift);
+            }
+        }
+        Formula shifted = new Formula(template, newRowShift, newColumnShift);
+        shifted.model = model;
+        return shifted;
+    }
+
+    /**
+     * Same as {@link #shift(JSheetTableModel, int, int)}, but makes
+     * a copy of the expression.
+     */
+    private Formula copy(JSheetTableModel model, int rowShift, int columnShift) {
         ExpressionShifter shifter = new ExpressionShifter(model, rowShift, columnShift);
-        Expression shiftedExpr = expression.accept(shifter);
+        Expression shiftedExpr = getExpression().accept(shifter);
         List<Reference> references = shiftedExpr
             .getReferences()
             .collect(Collectors.toList());
@@ -94,10 +263,10 @@ public class Formula {
             .getRanges()
             .collect(Collectors.toList());
         String newDefinition = "= " + shiftedExpr.toString();
-        return new Formula(newDefinition, shiftedExpr, references, ranges);
+        return new Formula(new FormulaTemplate(newDefinition, shiftedExpr, references, ranges));
     }
 
-    private static class ExpressionShifter implements ExpressionVisitor<Expression> {
+    private class ExpressionShifter implements ExpressionVisitor<Expression> {
         final JSheetTableModel model;
         final int rowShift;
         final int columnShift;
@@ -159,29 +328,20 @@ public class Formula {
 
         @Override
         public Reference visit(Reference reference) {
-            if (!reference.isResolved()) {
-                // Leave unresolved references as-is. They only hold
-                // a string value, thus it's perfectly fine to re-use them
+            int fromRow = Formula.this.rowShift;
+            int fromColumn = Formula.this.columnShift;
+            if (!reference.isResolvable(model, fromRow, fromColumn)) {
+                // Leave unresolved references as-is, they are immutable
                 return reference;
             }
-            Cell cell = reference.getCell();
-            boolean rowAbsolute = reference.isRowAbsolute();
-            boolean columnAbsolute = reference.isColumnAbsolute();
-            int shiftedRow = rowAbsolute ? cell.row : cell.row + rowShift;
-            int shiftedColumn = columnAbsolute ? cell.column : cell.column + columnShift;
-            if (!model.containsCell(shiftedRow, shiftedColumn))
-                return new Reference(Reference.OUT_OF_BOUNDS_REFERENCE_NAME, null, false, false);
-            Cell shiftedCell = new Cell(shiftedRow, shiftedColumn);
-            String shiftedName = (columnAbsolute ? "$" : "")
-                + model.getColumnName(shiftedCell.column)
-                + (rowAbsolute ? "$" : "")
-                + shiftedCell.row;
-            return new Reference(shiftedName, shiftedCell, rowAbsolute, columnAbsolute);
+            if (!reference.isResolvable(model, fromRow + rowShift, fromColumn + columnShift))
+                return new Reference(Reference.OUT_OF_BOUNDS_REFERENCE_NAME, reference.getIndex());
+            return reference.shift(fromRow + rowShift, fromColumn + columnShift);
         }
     }
 
     @Override
     public String toString() {
-        return originalDefinition;
+        return getDefinition();
     }
 }
@@ -0,0 +1,82 @@
+package org.jsheet.data;
+
+import org.jsheet.evaluation.CompiledExpression;
+import org.jsheet.evaluation.ExpressionCompiler;
+import org.jsheet.expression.Expression;
+import org.jsheet.expression.Range;
+import org.jsheet.expression.Reference;
+
+import java.util.List;
+
+/**
+ * The part of a formula which only depends on its definition: the parsed
+ * expression and the references and ranges in it. Templates are immutable,
+ * so all the formulae with the same definition may share one, while the
+ * cells their references point to are bound by each {@link Formula}.
+ * The same goes for the compiled expression, which is created on request.
+ */
+public final class FormulaTemplate {
+    private final String definition;
+    private final Expression expression;
+    private final List<Reference> references;
+    private final List<Range> ranges;
+
+    // Formulae may be evaluated in parallel, at worst both compile it
+    private volatile CompiledExpression compiled;
+
+    /**
+     * @param references are all references in the expression, such that
+     * each one is at the position of its {@link Reference#getIndex()}.
+     */
+    public FormulaTemplate(String definition, Expression expression,
+        List<Reference> references, List<Range> ranges)
+    {
+        for (int i = 0; i < references.size(); i++) {
+            if (references.get(i).getIndex() != i)
+                throw new IllegalArgumentException("misplaced reference " + references.get(i));
+        }
+        this.definition = definition;
+        this.expression = expression;
+        this.references = List.copyOf(references);
+        this.ranges = List.copyOf(ranges);
+    }
+
+    public String getDefinition() {
+        return definition;
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return a list of all references in the expression, including the first
+     * and the last references for each range (e.g. A1 and A10 for A1:A10)
+     */
+    public List<Reference> getReferences() {
+        return references;
+    }
+
+    /**
+     * @return a list of all ranges in the expression.
+     */
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * @return the expression compiled with {@link ExpressionCompiler},
+     * which is shared by all the formulae of this template.
+     */
+    public CompiledExpression getCompiled() {
+        CompiledExpression result = compiled;
+        if (result == null)
+            compiled = result = ExpressionCompiler.compile(expression);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return definition;
+    }
+}
@@ -0,0 +1,108 @@
+package org.jsheet.data;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An open addressing multiset of non-negative {@code int}s with linear
+ * probing. Adding and removing an element takes constant time on average
+ * regardless of the size.
+ */
+final class IntBag {
+    private static final int EMPTY = -1;
+
+    private int[] elements;
+    private int[] counts;
+    // Number of distinct elements
+    private int size = 0;
+
+    IntBag() {
+        allocate(4);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(int element) {
+        int mask = elements.length - 1;
+        int i = slot(element, mask);
+        for (; elements[i] != EMPTY; i = (i + 1) & mask) {
+            if (elements[i] == element) {
+                counts[i]++;
+                return;
+            }
+        }
+        elements[i] = element;
+        counts[i] = 1;
+        // Keep the load factor at most 1/2
+        if (++size > elements.length / 2)
+            rehash(elements.length * 2);
+    }
+
+    /**
+     * Removes a single occurrence of {@code element}.
+     *
+     * @return whether {@code element} was in the bag.
+     */
+    boolean remove(int element) {
+        int mask = elements.length - 1;
+        int i = slot(element, mask);
+        for (; elements[i] != element; i = (i + 1) & mask) {
+            if (elements[i] == EMPTY)
+                return false;
+        }
+        if (--counts[i] > 0)
+            return true;
+        size--;
+        // Shift the following elements back instead of leaving a tombstone
+        for (int j = (i + 1) & mask; elements[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(elements[j], mask);
+            // Move the element unless its home slot is cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                elements[i] = elements[j];
+                counts[i] = counts[j];
+                i = j;
+            }
+        }
+        elements[i] = EMPTY;
+        return true;
+    }
+
+    /**
+     * Calls {@code action} once for every distinct element.
+     */
+    void forEach(IntConsumer action) {
+        for (int element : elements) {
+            if (element != EMPTY)
+                action.accept(element);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldElements = elements;
+        int[] oldCounts = counts;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldElements.length; j++) {
+            if (oldElements[j] == EMPTY)
+                continue;
+            int i = slot(oldElements[j], mask);
+            while (elements[i] != EMPTY)
+                i = (i + 1) & mask;
+            elements[i] = oldElements[j];
+            counts[i] = oldCounts[j];
+        }
+    }
+
+    private void allocate(int capacity) {
+        elements = new int[capacity];
+        counts = new int[capacity];
+        Arrays.fill(elements, EMPTY);
+    }
+
+    private static int slot(int element, int mask) {
+        int h = element * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -1,20 +1,21 @@
 package org.jsheet.data;
 
-import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvValidationException;
+import org.jsheet.evaluation.ErrorValue;
 import org.jsheet.evaluation.Result;
 import org.jsheet.evaluation.Type;
 import org.jsheet.evaluation.Value;
 import org.jsheet.parser.ParseException;
-import org.jsheet.parser.ParserUtils;
 
 import javax.swing.table.AbstractTableModel;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ObjIntConsumer;
 
 public class JSheetTableModel extends AbstractTableModel {
     public static final int DEFAULT_ROW_COUNT = 100;
@@ -23,13 +24,29 @@ public class JSheetTableModel extends AbstractTableModel {
     public static final int MIN_ROW_COUNT = 10;
     public static final int MIN_COLUMN_COUNT = 10;
 
-    public static final int MAX_ROW_COUNT = 1000;
-    public static final int MAX_COLUMN_COUNT = 100;
+    public static final int MAX_ROW_COUNT = 1 << 20;
+    public static final int MAX_COLUMN_COUNT = 1 << 14;
 
-    private final List<Value[]> data;
-    private final DependencyManager dependencies = new DependencyManager();
+    // Sheets up to this size are written to CSV in full, see write()
+    public static final int CSV_FULL_ROW_COUNT = 1000;
+    public static final int CSV_FULL_COLUMN_COUNT = 100;
+
+    private final TileStore data;
+    private final DependencyManager dependencies = new DependencyManager(this);
+    private final UpdateCoalescer updates = new UpdateCoalescer(this);
     private boolean modified = false;
 
+    // Cells changed within the current batch, see beginBatch()
+    private int batchDepth = 0;
+    private Set<Cell> batchChanged;
+
+    // Re-evaluates in the background or null to re-evaluate on the calling thread
+    private BackgroundRecalculation recalculation;
+
+    // Whether changes only mark formulae stale, see setLazyRecalculation()
+    private boolean lazy = false;
+    private final Set<Cell> pinned = new HashSet<>();
+
     public JSheetTableModel() {
         this(DEFAULT_ROW_COUNT, DEFAULT_COLUMN_COUNT);
     }
@@ -39,39 +56,89 @@ public class JSheetTableModel extends AbstractTableModel {
             throw new IllegalArgumentException("illegal row count");
         if (columnCount < MIN_COLUMN_COUNT || columnCount > MAX_COLUMN_COUNT)
             throw new IllegalArgumentException("illegal column count");
-        data = new ArrayList<>(rowCount);
-        for (int i = 0; i < rowCount; i++) {
-            data.add(new Value[columnCount]);
-        }
+        data = new TileStore(rowCount, columnCount);
     }
 
     /**
-     * Constructs a model from a raw {@code data} of values.
+     * Constructs an empty model with no rows for an import, which appends
+     * rows with {@link #appendRows(List, Collection)} as they are read
+     * and then calls {@link #imported(Collection, DependencyManager.Progress)}.
      */
-    private JSheetTableModel(List<Value[]> data) {
-        this.data = data;
-        for (int row = 0; row < getRowCount(); row++) {
-            for (int column = 0; column < getColumnCount(); column++) {
-                Value value = getValueAt(row, column);
-                if (value != null && value.getTag() == Type.FORMULA) {
-                    Formula formula = value.getAsFormula();
-                    formula.resolveReferences(this);
-                    Cell current = new Cell(row, column);
-                    dependencies.addFormula(current, formula);
-                    dependencies.reevaluateAll(current);
-                }
+    JSheetTableModel(int columnCount) {
+        data = new TileStore(0, columnCount);
+    }
+
+    /**
+     * Stores raw {@code rows} of values after the rows of this model.
+     * Values past the column count are dropped, cells of formulae are added
+     * to {@code formulae}.
+     */
+    void appendRows(List<Value[]> rows, Collection<Cell> formulae) {
+        int firstRow = getRowCount();
+        data.extendRows(firstRow + rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Value[] values = rows.get(i);
+            int length = Math.min(values.length, getColumnCount());
+            for (int column = 0; column < length; column++) {
+                Value value = values[column];
+                if (value == null)
+                    continue;
+                data.set(firstRow + i, column, value);
+                if (value.getTag() == Type.FORMULA)
+                    formulae.add(new Cell(firstRow + i, column));
             }
         }
     }
 
+    /**
+     * Finishes an import once all the rows are appended. The dependency graph
+     * is built for all the {@code formulae} first, then each of them is
+     * evaluated exactly once in the order of dependencies, which stops early
+     * once {@code progress} is cancelled.
+     */
+    void imported(Collection<Cell> formulae, DependencyManager.Progress progress) {
+        for (var cell : formulae) {
+            data.getFormula(cell.row, cell.column).resolveReferences(this);
+        }
+        dependencies.addFormulae(formulae);
+        dependencies.evaluateAll(formulae, progress);
+    }
+
+    /**
+     * Stores a value read from a file. Once all values are stored,
+     * {@link #loaded(Collection, boolean)} must be called.
+     */
+    void load(int rowIndex, int columnIndex, Value value) {
+        data.set(rowIndex, columnIndex, value);
+    }
+
+    /**
+     * Registers dependencies of loaded {@code formulae} which must have
+     * references resolved already.
+     *
+     * @param evaluate whether formulae need evaluation or hold their results already.
+     */
+    void loaded(Collection<Cell> formulae, boolean evaluate) {
+        dependencies.addFormulae(formulae);
+        if (evaluate)
+            dependencies.evaluateAll(formulae);
+    }
+
+    /**
+     * @see TileStore#forEachInColumn(int, ObjIntConsumer)
+     */
+    void forEachInColumn(int columnIndex, ObjIntConsumer<Value> action) {
+        data.forEachInColumn(columnIndex, action);
+    }
+
     @Override
     public int getRowCount() {
-        return data.size();
+        return data.getRowCount();
     }
 
     @Override
     public int getColumnCount() {
-        return data.get(0).length;
+        return data.getColumnCount();
     }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
@@ -84,7 +151,48 @@ public class JSheetTableModel extends AbstractTableModel {
     public Value getValueAt(int rowIndex, int columnIndex) {
         if (!containsCell(rowIndex, columnIndex))
             throw new IllegalArgumentException("out of bounds");
-        return data.get(rowIndex)[columnIndex];
+        return data.get(rowIndex, columnIndex);
+    }
+
+    /**
+     * @return {@code true} if the cell holds a plain number (not a formula).
+     */
+    public boolean isPlainDoubleAt(int rowIndex, int columnIndex) {
+        return data.isDouble(rowIndex, columnIndex);
+    }
+
+    /**
+     * Reads a plain number directly from the storage without creating
+     * a {@link Value}. Must only be called if {@link #isPlainDoubleAt(int, int)}
+     * holds for the cell.
+     */
+    public double getPlainDoubleAt(int rowIndex, int columnIndex) {
+        return data.getDouble(rowIndex, columnIndex);
+    }
+
+    /**
+     * @return a formula stored at the cell or {@code null} if the cell holds something else.
+     */
+    Formula getFormulaAt(int rowIndex, int columnIndex) {
+        return data.getFormula(rowIndex, columnIndex);
+    }
+
+    /**
+     * Same names as those of {@link AbstractTableModel}, which are shared.
+     */
+    @Override
+    public String getColumnName(int column) {
+        return A1Notation.columnName(column);
+    }
+
+    /**
+     * Looks a column up by decoding its name rather than by comparing
+     * names of all the columns.
+     */
+    @Override
+    public int findColumn(String columnName) {
+        int column = A1Notation.decodeColumn(columnName);
+        return column < getColumnCount() ? column : -1;
     }
 
     @Override
@@ -96,216 +204,315 @@ public class JSheetTableModel extends AbstractTableModel {
      * 1. If a current value is a formula, removes links to cells {@code referencedBy} it.
      * 2. If a new value is a formula, adds links to cells {@code referencedBy} it.
      * 3. Invalidate formulae results current cell is transitively {@code referencedBy}.
+     * <p>
+     * The cell and the re-evaluated formulae are announced with a single event
+     * covering their bounding rectangle.
+     * <p>
+     * Inside a batch (see {@link #beginBatch()}) the last step is postponed until
+     * the batch is committed. With background re-evaluation (see
+     * {@link #setRecalculationExecutor(Executor)}) it's only started, while
+     * a re-evaluation in progress is cancelled before the first step.
+     * In the lazy mode (see {@link #setLazyRecalculation(boolean)}) formulae
+     * are only marked stale.
      **/
     @Override
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
         setModified(true);
+        Collection<Cell> remaining = recalculation != null ? recalculation.cancel() : List.of();
         Cell current = new Cell(rowIndex, columnIndex);
-        Value prev = getValueAt(rowIndex, columnIndex);
-        if (prev != null && prev.getTag() == Type.FORMULA) {
-            Formula formula = prev.getAsFormula();
-            dependencies.removeFormula(current, formula);
+        Formula prev = data.getFormula(rowIndex, columnIndex);
+        if (prev != null) {
+            dependencies.removeFormula(current, prev);
         }
         Value value = (Value) aValue;
+        data.set(rowIndex, columnIndex, value);
         if (value != null && value.getTag() == Type.FORMULA) {
             Formula formula = value.getAsFormula();
             formula.resolveReferences(this);
             dependencies.addFormula(current, formula);
         }
-        data.get(rowIndex)[columnIndex] = value;
-        dependencies.reevaluateAll(current);
-        fireTableCellUpdated(rowIndex, columnIndex);
+        dependencies.valueChanged(current);
+        if (batchDepth > 0) {
+            batchChanged.add(current);
+            batchChanged.addAll(remaining);
+            return;
+        }
+        Set<Cell> changed = new HashSet<>(remaining);
+        changed.add(current);
+        recalculate(changed);
+    }
+
+    /**
+     * Starts a batch of changes. Until the matching {@link #commitBatch()}
+     * values are stored as usual but formulae are neither re-evaluated
+     * nor are table events fired. Batches may be nested, only the outermost
+     * one takes effect.
+     */
+    public void beginBatch() {
+        if (batchDepth++ == 0)
+            batchChanged = new HashSet<>();
+    }
+
+    /**
+     * Finishes a batch started with {@link #beginBatch()}: re-evaluates every
+     * formula affected by the changes at once and fires a single event
+     * covering all the updated cells.
+     */
+    public void commitBatch() {
+        if (batchDepth == 0)
+            throw new IllegalStateException("no batch in progress");
+        if (--batchDepth > 0)
+            return;
+        Set<Cell> changed = batchChanged;
+        batchChanged = null;
+        if (changed.isEmpty())
+            return;
+        recalculate(changed);
+    }
+
+    /**
+     * Re-evaluates formulae which depend on {@code changed} cells, marks them
+     * stale or starts re-evaluating them in the background, and announces
+     * the updated cells.
+     */
+    private void recalculate(Collection<Cell> changed) {
+        updates.addAll(changed);
+        if (lazy) {
+            updates.addAll(dependencies.markStale(changed));
+            for (var cell : pinned)
+                dependencies.refresh(cell);
+        } else if (recalculation != null) {
+            recalculation.submit(changed);
+        } else {
+            updates.addAll(dependencies.reevaluateAll(changed));
+        }
+        updates.flush();
     }
 
     public Result getResultAt(Cell cell) {
         Value value = getValueAt(cell.row, cell.column);
         if (value == null) {
-            String strCell = getColumnName(cell.column) + cell.row;
-            return Result.failure(String.format("Cell %s is uninitialized", strCell));
+            return Result.failure(ErrorValue.uninitialized(cell));
         }
         if (value.getTag() == Type.FORMULA) {
-            // If a cell contains a formula than its result is already evaluated
+            // If a cell contains a formula than its result is already evaluated,
+            // unless it's stale in the lazy mode
+            if (lazy)
+                dependencies.refresh(cell);
             return value.getAsFormula().getResult();
         } else { // Plain value
             return Result.success(value);
         }
     }
 
-    public boolean isModified() {
-        return modified;
+    /**
+     * Same as {@link #getResultAt(Cell)}, but gives the result as a value,
+     * which is an error in case of a failure, without wrapping plain values.
+     */
+    public Value getResultValueAt(Cell cell) {
+        Value value = getValueAt(cell.row, cell.column);
+        if (value == null)
+            return ErrorValue.uninitialized(cell);
+        if (value.getTag() != Type.FORMULA)
+            return value;
+        if (lazy)
+            dependencies.refresh(cell);
+        Result result = value.getAsFormula().getResult();
+        return result.isPresent() ? result.get() : result.getError();
     }
 
-    public void setModified(boolean modified) {
-        this.modified = modified;
+    /**
+     * Returns the sum of numbers in a range without scanning it, if the sum
+     * is maintained for some formula using the range and every cell of
+     * the range holds a number. Otherwise the result is empty and the caller
+     * should compute the sum itself.
+     */
+    public OptionalDouble getMaintainedSum(Cell first, Cell last) {
+        return dependencies.getMaintainedSum(first, last);
     }
 
     /**
-     * Deserializes a model from a CSV {@code file}.
+     * Makes large re-evaluations run formulae which don't depend on each
+     * other in parallel on {@code pool}. Passing {@code null} switches back
+     * to serial re-evaluation, which is the default.
      */
-    public static JSheetTableModel read(File file)
-        throws IOException, CsvValidationException, ParseException
-    {
-        List<Value[]> data = new ArrayList<>();
-        try (var reader = new CSVReader(new FileReader(file))) {
-            String[] line;
-            while ((line = reader.readNext()) != null) {
-                Value[] row = new Value[line.length];
-                for (int i = 0; i < line.length; i++) {
-                    String strValue = line[i];
-                    row[i] = strValue.isEmpty() ? null : ParserUtils.parseValue(strValue);
-                }
-                data.add(row);
-            }
-        }
-        return new JSheetTableModel(data);
+    public void setRecalculationPool(ForkJoinPool pool) {
+        awaitRecalculation();
+        dependencies.setPool(pool);
     }
 
     /**
-     * Serializes {@code model} in a CSV {@code file}.
+     * Makes re-evaluation run on {@code executor}, so that {@link #setValueAt}
+     * returns right away and the updated cells are announced later on the
+     * event dispatch thread. A change made in the meantime cancels
+     * the re-evaluation in progress and restarts it from where it stopped.
+     * Passing {@code null} switches back to re-evaluation on the thread
+     * changing the model, which is the default.
+     * <p>
+     * Either way the model must only be changed by a single thread.
      */
-    public static void write(File file, JSheetTableModel model) throws IOException {
-        try (var writer = new CSVWriter(new FileWriter(file))) {
-            for (int row = 0; row < model.getRowCount(); row++) {
-                String[] strRow = Arrays.stream(model.data.get(row))
-                    .map(o -> o == null ? "" : o.toString())
-                    .toArray(String[]::new);
-                writer.writeNext(strRow);
-            }
-        }
+    public void setRecalculationExecutor(Executor executor) {
+        awaitRecalculation();
+        recalculation = executor != null
+            ? new BackgroundRecalculation(dependencies, updates, executor)
+            : null;
     }
 
-    private enum EvaluationStage {
-        NOT_EVALUATED, IN_PROGRESS, EVALUATED
+    /**
+     * Cancels a background re-evaluation, if any, without finishing it later
+     * and switches back to re-evaluation on the thread changing the model.
+     * This is meant for a model which is discarded, so that it doesn't hold
+     * up the executor it shares with other models.
+     */
+    public void discardRecalculation() {
+        if (recalculation != null)
+            recalculation.cancel();
+        recalculation = null;
     }
 
-    private class DependencyManager {
-        // Dependency graph
-        private final Map<Cell, Collection<Cell>> references = new HashMap<>();
-        private final Map<Cell, Collection<Cell>> referencedBy = new HashMap<>();
+    /**
+     * Waits until a background re-evaluation, if any, is over and evaluates
+     * stale formulae in the lazy mode, so that all the formulae hold
+     * up-to-date results.
+     */
+    public void awaitRecalculation() {
+        if (recalculation != null)
+            recalculation.await();
+        if (lazy)
+            dependencies.refreshAll();
+    }
 
-        // Computation state
-        private final Map<Cell, EvaluationStage> evaluationStage = new HashMap<>();
+    /**
+     * Switches the lazy mode, in which a change doesn't re-evaluate formulae
+     * depending on it but only marks them stale. A stale formula is evaluated
+     * on demand once its result is requested by {@link #getResultAt(Cell)},
+     * e.g. when it's rendered, along with the stale formulae it depends on.
+     * So the cost of a change follows what is shown rather than the size
+     * of the sheet. Pinned cells, see {@link #setPinned(Cell, boolean)},
+     * are still evaluated after every change.
+     * <p>
+     * Switching the mode off evaluates all the stale formulae, just like
+     * saving the model does.
+     */
+    public void setLazyRecalculation(boolean lazy) {
+        awaitRecalculation();
+        this.lazy = lazy;
+    }
 
-        void addFormula(Cell cell, Formula formula) {
-            for (var ref : formula.getReferences()) {
-                if (ref.isResolved())
-                    addLink(cell, ref.getCell());
-            }
-            for (var range : formula.getRanges()) {
-                if (range.isResolved()) {
-                    for (var c : range) {
-                        addLink(cell, c);
-                    }
-                }
-            }
-        }
+    /**
+     * Makes the formula at {@code cell} evaluated after every change even
+     * in the lazy mode, e.g. if its result is watched.
+     */
+    public void setPinned(Cell cell, boolean pinned) {
+        if (pinned)
+            this.pinned.add(cell);
+        else
+            this.pinned.remove(cell);
+    }
 
-        void removeFormula(Cell cell, Formula formula) {
-            for (var ref : formula.getReferences()) {
-                if (ref.isResolved())
-                    removeLink(cell, ref.getCell());
-            }
-            for (var range : formula.getRanges()) {
-                if (range.isResolved()) {
-                    for (var c : range) {
-                        removeLink(cell, c);
-                    }
-                }
-            }
-        }
+    /**
+     * Switches dynamic dependencies. With them a change only re-evaluates
+     * formulae which read the changed cell when they were evaluated last,
+     * rather than all the formulae referencing it. E.g. a change to a cell
+     * referenced in a branch of {@code if} which was not taken, or on the
+     * right of {@code &&} which was not evaluated, doesn't re-evaluate
+     * the formula. Cells in ranges always count as read.
+     */
+    public void setDynamicDependencies(boolean dynamic) {
+        if (recalculation != null)
+            recalculation.await();
+        dependencies.setDynamic(dynamic);
+    }
 
-        void addLink(Cell from, Cell to) {
-            references
-                .computeIfAbsent(from, k -> new ArrayList<>())
-                .add(to);
-            referencedBy
-                .computeIfAbsent(to, k -> new ArrayList<>())
-                .add(from);
-        }
+    public boolean isModified() {
+        return modified;
+    }
 
-        void removeLink(Cell from, Cell to) {
-            references.get(from).remove(to);
-            referencedBy.get(to).remove(from);
-        }
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
 
-        /**
-         * @return a set of cells that are which transitively depend on {@code cell}.
-         */
-        Collection<Cell> getDependentOn(Cell cell) {
-            Set<Cell> dependent = new HashSet<>();
-            Value cellValue = getValueAt(cell.row, cell.column);
-            if (cellValue != null && cellValue.getTag() == Type.FORMULA)
-                dependent.add(cell);
-            Queue<Cell> queue = new ArrayDeque<>();
-            queue.add(cell);
-            while (!queue.isEmpty()) {
-                Cell v = queue.remove();
-                Collection<Cell> us = referencedBy.get(v);
-                if (us == null)
-                    continue;
-                for (var u : us) {
-                    if (!dependent.contains(u)) {
-                        queue.add(u);
-                        dependent.add(u);
-                    }
-                }
-            }
-            return dependent;
-        }
+    /**
+     * Deserializes a model from a CSV {@code file}, see {@link CsvImporter}.
+     */
+    public static JSheetTableModel read(File file)
+        throws IOException, CsvValidationException, ParseException
+    {
+        return new CsvImporter(file).importModel();
+    }
 
-        void reevaluateAll(Cell changed) {
-            // Find all cells that need re-computation and invalidate them
-            Collection<Cell> invalid = getDependentOn(changed);
-            evaluationStage.clear();
-            for (var cell : invalid) {
-                evaluationStage.put(cell, EvaluationStage.NOT_EVALUATED);
-            }
+    /**
+     * Reads a model from a {@code file} in the native binary format,
+     * see {@link BinaryWorkbook}.
+     */
+    public static JSheetTableModel readBinary(File file) throws IOException {
+        return BinaryWorkbook.read(file);
+    }
 
-            // Re-evaluate all at once in a single DFS traversal
-            for (var cell : invalid) {
-                if (evaluationStage.get(cell) == EvaluationStage.NOT_EVALUATED)
-                    dfs(cell);
-            }
+    /**
+     * Writes {@code model} to a {@code file} in the native binary format along
+     * with formulae results, so that it is opened without re-evaluation.
+     */
+    public static void writeBinary(File file, JSheetTableModel model) throws IOException {
+        model.awaitRecalculation();
+        BinaryWorkbook.write(file, model, true);
+    }
 
-            // Fire table changed events
-            for (var cell : invalid) {
-                fireTableCellUpdated(cell.row, cell.column);
+    /**
+     * Serializes {@code model} in a CSV {@code file}. The sheet is written
+     * in full up to {@link #CSV_FULL_ROW_COUNT} rows and
+     * {@link #CSV_FULL_COLUMN_COUNT} columns, so it's read back at its size.
+     * Past that, rows and columns are only written up to the last populated
+     * or referenced cell, the rest of such a sheet is empty anyway.
+     */
+    public static void write(File file, JSheetTableModel model) throws IOException {
+        model.awaitRecalculation();
+        int rowCount = model.getRowCount();
+        int columnCount = model.getColumnCount();
+        if (rowCount > CSV_FULL_ROW_COUNT || columnCount > CSV_FULL_COLUMN_COUNT) {
+            Cell bounds = model.getUsedBounds();
+            int usedRowCount = bounds == null ? 0 : bounds.row + 1;
+            int usedColumnCount = bounds == null ? 0 : bounds.column + 1;
+            rowCount = Math.min(rowCount, Math.max(usedRowCount, CSV_FULL_ROW_COUNT));
+            columnCount = Math.min(columnCount, Math.max(usedColumnCount, CSV_FULL_COLUMN_COUNT));
+        }
+        try (var writer = new CSVWriter(new FileWriter(file))) {
+            for (int row = 0; row < rowCount; row++) {
+                String[] strRow = new String[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    Value value = model.getValueAt(row, column);
+                    strRow[column] = value == null ? "" : value.toString();
+                }
+                writer.writeNext(strRow);
             }
         }
+    }
 
-        void dfs(Cell u) {
-            evaluationStage.put(u, EvaluationStage.IN_PROGRESS);
-            boolean circular = false;
-            if (references.containsKey(u)) {
-                for (var v : references.get(u)) {
-                    if (!evaluationStage.containsKey(v)) {
-                        // v is a plain value or doesn't need re-computation
-                        continue;
-                    }
-                    EvaluationStage stage = evaluationStage.get(v);
-                    if (stage == EvaluationStage.EVALUATED) {
-                        // If v is evaluated, we can safely get its value
-                        // If v is on a cycle, the error will propagate to u
-                        continue;
-                    }
-                    if (stage == EvaluationStage.IN_PROGRESS) {
-                        // Found a loop
-                        circular = true;
-                        continue;
-                    }
-                    if (stage == EvaluationStage.NOT_EVALUATED) {
-                        dfs(v);
+    /**
+     * @return the last row and column that are either populated or referenced
+     * by a formula, so that formulae still resolve once the rest is cut off
+     * by {@link #write(File, JSheetTableModel)},
+     * or {@code null} if the model is empty.
+     */
+    private Cell getUsedBounds() {
+        Cell populated = data.getPopulatedBounds();
+        if (populated == null)
+            return null;
+        int[] last = { populated.row, populated.column };
+        for (int column = 0; column <= populated.column; column++) {
+            data.forEachInColumn(column, (value, row) -> {
+                if (value.getTag() != Type.FORMULA)
+                    return;
+                Formula formula = value.getAsFormula();
+                for (var reference : formula.getReferences()) {
+                    Cell cell = formula.getCell(reference);
+                    if (cell != null) {
+                        last[0] = Math.max(last[0], cell.row);
+                        last[1] = Math.max(last[1], cell.column);
                     }
                 }
-            }
-            Formula current = getValueAt(u.row, u.column).getAsFormula();
-            if (circular) {
-                current.setResult(Result.failure("Circular dependency"));
-            } else {
-                // All of the cells u references are evaluated
-                current.eval(JSheetTableModel.this);
-            }
-            evaluationStage.put(u, EvaluationStage.EVALUATED);
+            });
         }
+        return new Cell(last[0], last[1]);
     }
 }
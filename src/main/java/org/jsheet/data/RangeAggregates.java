@@ -0,0 +1,209 @@
+package org.jsheet.data;
+
+import org.jsheet.evaluation.Result;
+import org.jsheet.evaluation.Type;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+/**
+ * Maintains sums over ranges that formulae use, so that a change of
+ * a single cell doesn't require scanning every range containing it.
+ * <p>
+ * Every range of a suitable size gets a segment tree over its cells, built
+ * on first request. Whenever the value of a cell changes, the leaves of the
+ * trees containing it are updated in {@code O(log n)}. Unlike applying deltas
+ * to a running total, the sums never drift: the same cell values always give
+ * the same result, whatever the order of updates.
+ * <p>
+ * Trees are safe to use from several threads during parallel re-evaluation.
+ */
+class RangeAggregates {
+    // Smaller ranges are cheap to scan
+    static final int MIN_AREA = 64;
+    // Trees for larger ranges take too much memory
+    static final int MAX_AREA = 1 << 22;
+
+    private final JSheetTableModel model;
+    private final Map<Area, SumTree> trees = new HashMap<>();
+    private final RangeIndex index = new RangeIndex();
+
+    // Trees by their ids in the index, ids of released trees are reused
+    private SumTree[] byId = new SumTree[16];
+    private int idCount = 0;
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    RangeAggregates(JSheetTableModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Starts maintaining the sum of a range, once per formula using it.
+     */
+    void retain(Cell first, Cell last) {
+        long area = area(first, last);
+        if (area < MIN_AREA || area > MAX_AREA)
+            return;
+        Area key = new Area(first, last);
+        SumTree tree = trees.get(key);
+        if (tree == null) {
+            tree = new SumTree(first, last, allocateId());
+            byId[tree.id] = tree;
+            trees.put(key, tree);
+            index.add(tree.id, first, last);
+        }
+        tree.users++;
+    }
+
+    /**
+     * Undoes {@link #retain(Cell, Cell)}, the sum is dropped once the range
+     * is no longer used.
+     */
+    void release(Cell first, Cell last) {
+        Area key = new Area(first, last);
+        SumTree tree = trees.get(key);
+        if (tree == null)
+            return;
+        if (--tree.users == 0) {
+            trees.remove(key);
+            index.remove(tree.id, first, last);
+            byId[tree.id] = null;
+            if (freeCount == free.length)
+                free = Arrays.copyOf(free, 2 * free.length);
+            free[freeCount++] = tree.id;
+        }
+    }
+
+    /**
+     * Must be called whenever the value or the formula result of a cell changes.
+     */
+    void update(Cell cell) {
+        index.forEachContaining(cell.row, cell.column, id -> byId[id].update(model, cell));
+    }
+
+    /**
+     * @return the sum of a range if it is maintained and every cell
+     * of the range holds a number, or nothing otherwise.
+     */
+    OptionalDouble getSum(Cell first, Cell last) {
+        SumTree tree = trees.get(new Area(first, last));
+        if (tree == null)
+            return OptionalDouble.empty();
+        return tree.getSum(model);
+    }
+
+    private int allocateId() {
+        if (freeCount > 0)
+            return free[--freeCount];
+        if (idCount == byId.length)
+            byId = Arrays.copyOf(byId, 2 * byId.length);
+        return idCount++;
+    }
+
+    private static long area(Cell first, Cell last) {
+        if (first.row > last.row || first.column > last.column)
+            return 0;
+        return (long) (last.row - first.row + 1) * (last.column - first.column + 1);
+    }
+
+    private static class Area {
+        final Cell first;
+        final Cell last;
+
+        Area(Cell first, Cell last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Area area = (Area) o;
+            return first.equals(area.first) && last.equals(area.last);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * first.hashCode() + last.hashCode();
+        }
+    }
+
+    /**
+     * A bottom-up segment tree over the cells of a range in column-major
+     * order. Cells which don't hold a number are leaves of zero, they are
+     * counted separately.
+     */
+    private static class SumTree {
+        final Cell first;
+        final int height;
+        final int size;
+        final int id;
+        int users = 0;
+
+        // Both are null until the tree is built
+        double[] sums;
+        boolean[] invalid;
+        int invalidCount;
+
+        SumTree(Cell first, Cell last, int id) {
+            this.first = first;
+            this.id = id;
+            this.height = last.row - first.row + 1;
+            this.size = (int) area(first, last);
+        }
+
+        synchronized OptionalDouble getSum(JSheetTableModel model) {
+            if (sums == null)
+                build(model);
+            return invalidCount == 0 ? OptionalDouble.of(sums[1]) : OptionalDouble.empty();
+        }
+
+        synchronized void update(JSheetTableModel model, Cell cell) {
+            if (sums == null)
+                return;
+            int leaf = size + (cell.column - first.column) * height + (cell.row - first.row);
+            set(model, leaf, cell.row, cell.column);
+            for (int i = leaf >> 1; i > 0; i >>= 1)
+                sums[i] = sums[2 * i] + sums[2 * i + 1];
+        }
+
+        private void build(JSheetTableModel model) {
+            sums = new double[2 * size];
+            invalid = new boolean[size];
+            invalidCount = 0;
+            for (int i = 0; i < size; i++) {
+                int row = first.row + i % height;
+                int column = first.column + i / height;
+                set(model, size + i, row, column);
+            }
+            for (int i = size - 1; i > 0; i--)
+                sums[i] = sums[2 * i] + sums[2 * i + 1];
+        }
+
+        private void set(JSheetTableModel model, int leaf, int row, int column) {
+            double value = 0;
+            boolean isInvalid = true;
+            if (model.isPlainDoubleAt(row, column)) {
+                value = model.getPlainDoubleAt(row, column);
+                isInvalid = false;
+            } else {
+                Formula formula = model.getFormulaAt(row, column);
+                Result result = formula != null ? formula.getResult() : null;
+                if (result != null && result.isPresent() && result.get().getTag() == Type.DOUBLE) {
+                    value = result.get().getAsDouble();
+                    isInvalid = false;
+                }
+            }
+            sums[leaf] = value;
+            int i = leaf - size;
+            if (invalid[i] != isInvalid) {
+                invalid[i] = isInvalid;
+                invalidCount += isInvalid ? 1 : -1;
+            }
+        }
+    }
+}
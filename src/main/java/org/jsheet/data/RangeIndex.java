@@ -0,0 +1,173 @@
+package org.jsheet.data;
+
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * Spatial index of rectangular ranges, each one attached to an owner id,
+ * that answers which of the ranges contain a given cell. Owners of equal
+ * ranges share a single entry where they are counted in an {@link IntBag},
+ * so adding and removing an owner doesn't depend on how many share it.
+ * <p>
+ * This is an interval tree over rows: a treap ordered by the corners of
+ * a range where every node also keeps the greatest bottom row found in its
+ * subtree, so subtrees which end above the queried cell are skipped.
+ * Columns are checked on the way. The size of the index only depends on
+ * the number of ranges, not on how many cells they cover.
+ */
+class RangeIndex {
+    private final Random random = new Random(0);
+    private Node root;
+
+    void add(int owner, Cell first, Cell last) {
+        Node node = find(first, last);
+        if (node == null) {
+            node = new Node(first, last, random.nextInt());
+            root = insert(root, node);
+        }
+        node.owners.add(owner);
+    }
+
+    /**
+     * Removes a single occurrence of an owner previously added with
+     * {@link #add(int, Cell, Cell)}.
+     */
+    void remove(int owner, Cell first, Cell last) {
+        Node node = find(first, last);
+        if (node == null || !node.owners.remove(owner))
+            throw new IllegalStateException("range is not indexed");
+        if (node.owners.isEmpty())
+            root = delete(root, node);
+    }
+
+    /**
+     * Calls {@code action} on the owner of every range which contains
+     * the cell. An owner is reported once for every distinct such range.
+     */
+    void forEachContaining(int row, int column, IntConsumer action) {
+        visit(root, row, column, action);
+    }
+
+    private void visit(Node node, int row, int column, IntConsumer action) {
+        while (node != null && node.maxLastRow >= row) {
+            visit(node.left, row, column, action);
+            if (node.first.row > row)
+                return; // Nodes to the right start even lower
+            if (node.contains(row, column))
+                node.owners.forEach(action);
+            node = node.right;
+        }
+    }
+
+    private Node find(Cell first, Cell last) {
+        Node node = root;
+        while (node != null) {
+            int cmp = compare(first, last, node);
+            if (cmp == 0)
+                return node;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private Node insert(Node node, Node inserted) {
+        if (node == null)
+            return inserted;
+        if (compare(inserted.first, inserted.last, node) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority)
+                return rotateRight(node);
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority)
+                return rotateLeft(node);
+        }
+        node.update();
+        return node;
+    }
+
+    private Node delete(Node node, Node deleted) {
+        if (node == deleted)
+            return merge(node.left, node.right);
+        if (compare(deleted.first, deleted.last, node) < 0)
+            node.left = delete(node.left, deleted);
+        else
+            node.right = delete(node.right, deleted);
+        node.update();
+        return node;
+    }
+
+    private Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        node.update();
+        left.right = node;
+        left.update();
+        return left;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        node.update();
+        right.left = node;
+        right.update();
+        return right;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            right.update();
+            return right;
+        }
+    }
+
+    private static int compare(Cell first, Cell last, Node node) {
+        int cmp = Integer.compare(first.row, node.first.row);
+        if (cmp != 0) return cmp;
+        cmp = Integer.compare(first.column, node.first.column);
+        if (cmp != 0) return cmp;
+        cmp = Integer.compare(last.row, node.last.row);
+        if (cmp != 0) return cmp;
+        return Integer.compare(last.column, node.last.column);
+    }
+
+    private static class Node {
+        final Cell first;
+        final Cell last;
+        final int priority;
+        final IntBag owners = new IntBag();
+        int maxLastRow;
+        Node left;
+        Node right;
+
+        Node(Cell first, Cell last, int priority) {
+            this.first = first;
+            this.last = last;
+            this.priority = priority;
+            this.maxLastRow = last.row;
+        }
+
+        boolean contains(int row, int column) {
+            return first.row <= row && row <= last.row
+                && first.column <= column && column <= last.column;
+        }
+
+        void update() {
+            maxLastRow = last.row;
+            if (left != null)
+                maxLastRow = Math.max(maxLastRow, left.maxLastRow);
+            if (right != null)
+                maxLastRow = Math.max(maxLastRow, right.maxLastRow);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.jsheet.data;
+
+import org.jsheet.evaluation.Value;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Sparse cell storage. The sheet is split into square tiles of
+ * {@value #TILE_SIZE} x {@value #TILE_SIZE} cells which are allocated on first
+ * write and dropped once they become empty again, so memory follows the number
+ * of populated cells rather than the declared dimensions.
+ * <p>
+ * Inside a tile cells are laid out column by column. Numbers are kept unboxed
+ * in a {@code double[]} along with a {@code byte[]} of type tags, while strings
+ * and formulae go to a side array which is allocated only once the tile gets one.
+ * {@link Value} objects returned by {@link #get(int, int)} are merely a view
+ * of the stored data and are created on access.
+ */
+class TileStore {
+    static final int TILE_SIZE = 64;
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    private static final byte EMPTY = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte FORMULA = 4;
+
+    // Only grows while a file is imported, see extendRows()
+    private int rowCount;
+    private final int columnCount;
+
+    // Indexed by tile column first, a tile column is allocated on first write
+    private final Tile[][] tiles;
+
+    TileStore(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.tiles = new Tile[tileCount(columnCount)][];
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Grows the store to {@code rowCount} rows. Allocated tile columns grow
+     * at least twice, so appending rows chunk by chunk takes linear time.
+     */
+    void extendRows(int rowCount) {
+        if (rowCount <= this.rowCount)
+            return;
+        this.rowCount = rowCount;
+        int tileRowCount = tileCount(rowCount);
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null && tiles[i].length < tileRowCount)
+                tiles[i] = Arrays.copyOf(tiles[i], Math.max(tileRowCount, 2 * tiles[i].length));
+        }
+    }
+
+    Value get(int row, int column) {
+        Tile t = tile(row, column);
+        if (t == null)
+            return null;
+        int i = index(row, column);
+        switch (t.tags[i]) {
+            case EMPTY: return null;
+            case BOOLEAN: return Value.of(t.numbers[i] != 0);
+            case DOUBLE: return Value.of(t.numbers[i]);
+            case STRING: return Value.of((String) t.objects[i]);
+            case FORMULA: return Value.of((Formula) t.objects[i]);
+            default: throw new AssertionError();
+        }
+    }
+
+    void set(int row, int column, Value value) {
+        if (value == null) {
+            clear(row, column);
+            return;
+        }
+        Tile t = tile(row, column);
+        if (t == null) {
+            Tile[] tileColumn = tiles[column >> TILE_SHIFT];
+            if (tileColumn == null)
+                tileColumn = tiles[column >> TILE_SHIFT] = new Tile[tileCount(rowCount)];
+            t = tileColumn[row >> TILE_SHIFT] = new Tile();
+        }
+        int i = index(row, column);
+        switch (value.getTag()) {
+            case BOOLEAN:
+                t.put(i, BOOLEAN, value.getAsBoolean() ? 1 : 0, null);
+                break;
+            case DOUBLE:
+                t.put(i, DOUBLE, value.getAsDouble(), null);
+                break;
+            case STRING:
+                t.put(i, STRING, 0, value.getAsString());
+                break;
+            case FORMULA:
+                t.put(i, FORMULA, 0, value.getAsFormula());
+                break;
+            /* Range values only occur inside formulae */
+            case RANGE: throw new IllegalArgumentException("cannot store a range");
+            /* Errors only occur as results of formulae */
+            case ERROR: throw new IllegalArgumentException("cannot store an error");
+        }
+    }
+
+    private void clear(int row, int column) {
+        Tile t = tile(row, column);
+        if (t == null)
+            return;
+        t.put(index(row, column), EMPTY, 0, null);
+        if (t.populated == 0)
+            tiles[column >> TILE_SHIFT][row >> TILE_SHIFT] = null;
+    }
+
+    boolean isDouble(int row, int column) {
+        Tile t = tile(row, column);
+        return t != null && t.tags[index(row, column)] == DOUBLE;
+    }
+
+    /**
+     * @return a number stored at the cell, the cell must hold a plain double.
+     */
+    double getDouble(int row, int column) {
+        return tile(row, column).numbers[index(row, column)];
+    }
+
+    /**
+     * @return a formula stored at the cell or {@code null} if the cell holds something else.
+     */
+    Formula getFormula(int row, int column) {
+        Tile t = tile(row, column);
+        if (t == null)
+            return null;
+        int i = index(row, column);
+        if (t.tags[i] != FORMULA)
+            return null;
+        return (Formula) t.objects[i];
+    }
+
+    /**
+     * Calls {@code action} with every populated cell of a column and its row,
+     * in the order of rows. Empty tiles are skipped.
+     */
+    void forEachInColumn(int column, ObjIntConsumer<Value> action) {
+        Tile[] tileColumn = tiles[column >> TILE_SHIFT];
+        if (tileColumn == null)
+            return;
+        for (int tileRow = 0; tileRow < tileColumn.length; tileRow++) {
+            Tile t = tileColumn[tileRow];
+            if (t == null)
+                continue;
+            int firstRow = tileRow << TILE_SHIFT;
+            int lastRow = Math.min(firstRow + TILE_SIZE, rowCount);
+            for (int row = firstRow; row < lastRow; row++) {
+                if (t.tags[index(row, column)] != EMPTY)
+                    action.accept(get(row, column), row);
+            }
+        }
+    }
+
+    /**
+     * @return the last populated row and the last populated column, which
+     * may belong to different cells, or {@code null} if the store is empty.
+     * Only tiles which may extend the bounds found so far are scanned.
+     */
+    Cell getPopulatedBounds() {
+        int lastRow = -1;
+        int lastColumn = -1;
+        for (int tileColumn = 0; tileColumn < tiles.length; tileColumn++) {
+            if (tiles[tileColumn] == null)
+                continue;
+            int firstColumn = tileColumn << TILE_SHIFT;
+            for (int tileRow = 0; tileRow < tiles[tileColumn].length; tileRow++) {
+                Tile t = tiles[tileColumn][tileRow];
+                int firstRow = tileRow << TILE_SHIFT;
+                if (t == null || firstRow + TILE_MASK <= lastRow && firstColumn + TILE_MASK <= lastColumn)
+                    continue;
+                for (int i = 0; i < t.tags.length; i++) {
+                    if (t.tags[i] != EMPTY) {
+                        lastRow = Math.max(lastRow, firstRow + (i & TILE_MASK));
+                        lastColumn = Math.max(lastColumn, firstColumn + (i >> TILE_SHIFT));
+                    }
+                }
+            }
+        }
+        return lastRow < 0 ? null : new Cell(lastRow, lastColumn);
+    }
+
+    private Tile tile(int row, int column) {
+        Tile[] tileColumn = tiles[column >> TILE_SHIFT];
+        if (tileColumn == null)
+            return null;
+        return tileColumn[row >> TILE_SHIFT];
+    }
+
+    private static int index(int row, int column) {
+        return (column & TILE_MASK) << TILE_SHIFT | (row & TILE_MASK);
+    }
+
+    private static int tileCount(int cellCount) {
+        return (cellCount + TILE_MASK) >> TILE_SHIFT;
+    }
+
+    private static class Tile {
+        final byte[] tags = new byte[TILE_SIZE * TILE_SIZE];
+        final double[] numbers = new double[TILE_SIZE * TILE_SIZE];
+        Object[] objects;
+        int populated;
+
+        void put(int i, byte tag, double number, Object object) {
+            if (tags[i] == EMPTY && tag != EMPTY)
+                populated++;
+            else if (tags[i] != EMPTY && tag == EMPTY)
+                populated--;
+            tags[i] = tag;
+            numbers[i] = number;
+            if (object != null) {
+                if (objects == null)
+                    objects = new Object[TILE_SIZE * TILE_SIZE];
+                objects[i] = object;
+            } else if (objects != null) {
+                objects[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.jsheet.data;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import java.util.Collection;
+
+/**
+ * Collects updated cells of a model into their bounding rectangle and
+ * announces the rectangle with a single event. A table only repaints
+ * the part of the rectangle it shows, so the cost of an update follows
+ * the visible area rather than the number of updated cells.
+ * <p>
+ * Cells may be added from any thread, while events are only fired by
+ * the thread which changes the model or on the event dispatch thread.
+ */
+class UpdateCoalescer {
+    /**
+     * Minimal interval between events streamed from the background.
+     */
+    static final long THROTTLE_NANOS = 100_000_000;
+
+    private final JSheetTableModel model;
+
+    // The rectangle of cells not announced yet, empty if firstRow > lastRow
+    private int firstRow = Integer.MAX_VALUE;
+    private int lastRow = Integer.MIN_VALUE;
+    private int firstColumn = Integer.MAX_VALUE;
+    private int lastColumn = Integer.MIN_VALUE;
+
+    // Whether a flush is posted to the event dispatch thread already
+    private boolean scheduled = false;
+    private long lastScheduled = System.nanoTime() - THROTTLE_NANOS;
+
+    UpdateCoalescer(JSheetTableModel model) {
+        this.model = model;
+    }
+
+    synchronized void add(Cell cell) {
+        firstRow = Math.min(firstRow, cell.row);
+        lastRow = Math.max(lastRow, cell.row);
+        firstColumn = Math.min(firstColumn, cell.column);
+        lastColumn = Math.max(lastColumn, cell.column);
+    }
+
+    void addAll(Collection<Cell> cells) {
+        for (var cell : cells)
+            add(cell);
+    }
+
+    /**
+     * Announces the collected cells right away.
+     */
+    void flush() {
+        TableModelEvent event;
+        synchronized (this) {
+            scheduled = false;
+            if (firstRow > lastRow)
+                return;
+            event = firstColumn == lastColumn
+                ? new TableModelEvent(model, firstRow, lastRow, firstColumn)
+                : new TableModelEvent(model, firstRow, lastRow);
+            firstRow = firstColumn = Integer.MAX_VALUE;
+            lastRow = lastColumn = Integer.MIN_VALUE;
+        }
+        model.fireTableChanged(event);
+    }
+
+    /**
+     * Announces the collected cells on the event dispatch thread. Unless
+     * {@code force} holds, nothing happens if the previous event was posted
+     * less than {@link #THROTTLE_NANOS} ago, the cells wait for a later one.
+     */
+    synchronized void flushLater(boolean force) {
+        if (scheduled || firstRow > lastRow)
+            return;
+        long now = System.nanoTime();
+        if (!force && now - lastScheduled < THROTTLE_NANOS)
+            return;
+        scheduled = true;
+        lastScheduled = now;
+        SwingUtilities.invokeLater(this::flush);
+    }
+}
@@ -0,0 +1,29 @@
+package org.jsheet.evaluation;
+
+/**
+ * A boolean held as a primitive, there are only {@link Value#TRUE}
+ * and {@link Value#FALSE}.
+ */
+final class BooleanValue extends Value {
+    private final boolean b;
+
+    BooleanValue(boolean b) {
+        super(Type.BOOLEAN, null);
+        this.b = b;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        return b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Type.BOOLEAN.hashCode() + Boolean.hashCode(b);
+    }
+}
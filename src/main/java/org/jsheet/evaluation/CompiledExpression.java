@@ -0,0 +1,17 @@
+package org.jsheet.evaluation;
+
+import org.jsheet.data.Formula;
+import org.jsheet.data.JSheetTableModel;
+
+/**
+ * An expression turned by {@link ExpressionCompiler} into a tree of closures
+ * which can be evaluated repeatedly without going through {@link Evaluator}.
+ * Results and error messages are the same as those of {@link Evaluator}.
+ */
+public abstract class CompiledExpression {
+    /**
+     * @param formula binds the references of the expression to cells.
+     */
+    public abstract Value evaluate(JSheetTableModel model, Formula formula)
+        throws EvaluationException;
+}
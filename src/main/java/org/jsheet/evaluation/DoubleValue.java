@@ -0,0 +1,31 @@
+package org.jsheet.evaluation;
+
+/**
+ * A number held as a primitive {@code double}.
+ */
+final class DoubleValue extends Value {
+    private final double d;
+
+    DoubleValue(double d) {
+        super(Type.DOUBLE, null);
+        this.d = d;
+    }
+
+    @Override
+    public double getAsDouble() {
+        return d;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        // Same as Double.equals()
+        return Double.doubleToLongBits(d) == Double.doubleToLongBits(((DoubleValue) o).d);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Type.DOUBLE.hashCode() + Double.hashCode(d);
+    }
+}
@@ -0,0 +1,122 @@
+package org.jsheet.evaluation;
+
+import org.jsheet.data.A1Notation;
+import org.jsheet.data.Cell;
+
+/**
+ * An error produced by evaluation, which is passed around as an ordinary
+ * {@link Value} of type {@link Type#ERROR}. A formula depending on an error
+ * gets the very same value as its result instead of building a new one.
+ * <p>
+ * The message is only formatted once it's requested, e.g. when the error
+ * is shown. Errors which don't mention cells or names are shared.
+ */
+public final class ErrorValue {
+    public enum Code {
+        UNINITIALIZED("Cell %s is uninitialized"),
+        UNRESOLVED("Reference %s unresolved"),
+        TYPE_MISMATCH("Expected %s and got %s"),
+        UNKNOWN_FUNCTION("Unknown function: %s"),
+        ARGUMENT_COUNT("Wrong number of arguments for function: %s"),
+        INCORRECT_RANGE("Incorrect range: %s"),
+        CIRCULAR("Circular dependency"),
+        // An error read from a file, which only has the message
+        OTHER("%s");
+
+        private final String format;
+
+        Code(String format) {
+            this.format = format;
+        }
+    }
+
+    public static final Value CIRCULAR = error(Code.CIRCULAR);
+
+    private static final Value[][] TYPE_MISMATCHES = new Value[Type.values().length][];
+    static {
+        for (Type expected : Type.values()) {
+            TYPE_MISMATCHES[expected.ordinal()] = new Value[Type.values().length];
+            for (Type actual : Type.values()) {
+                TYPE_MISMATCHES[expected.ordinal()][actual.ordinal()]
+                    = error(Code.TYPE_MISMATCH, expected.name(), actual.name());
+            }
+        }
+    }
+
+    private final Code code;
+    // Cells are named only when the message is formatted
+    private final Object[] arguments;
+    private String message;
+
+    private ErrorValue(Code code, Object[] arguments) {
+        this.code = code;
+        this.arguments = arguments;
+    }
+
+    public Code getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        String result = message;
+        if (result == null) {
+            Object[] names = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                names[i] = arguments[i] instanceof Cell
+                    ? A1Notation.name((Cell) arguments[i])
+                    : arguments[i];
+            }
+            message = result = String.format(code.format, names);
+        }
+        return result;
+    }
+
+    public static Value uninitialized(Cell cell) {
+        return error(Code.UNINITIALIZED, cell);
+    }
+
+    public static Value unresolved(String reference) {
+        return error(Code.UNRESOLVED, reference);
+    }
+
+    public static Value typeMismatch(Type expected, Type actual) {
+        return TYPE_MISMATCHES[expected.ordinal()][actual.ordinal()];
+    }
+
+    public static Value unknownFunction(String name) {
+        return error(Code.UNKNOWN_FUNCTION, name);
+    }
+
+    public static Value argumentCount(String name) {
+        return error(Code.ARGUMENT_COUNT, name);
+    }
+
+    public static Value incorrectRange(String range) {
+        return error(Code.INCORRECT_RANGE, range);
+    }
+
+    public static Value of(String message) {
+        return error(Code.OTHER, message);
+    }
+
+    private static Value error(Code code, Object... arguments) {
+        return Value.of(new ErrorValue(code, arguments));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return getMessage().equals(((ErrorValue) o).getMessage());
+    }
+
+    @Override
+    public int hashCode() {
+        return getMessage().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+}
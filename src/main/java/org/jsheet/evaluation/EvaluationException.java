@@ -1,7 +1,27 @@
 package org.jsheet.evaluation;
 
+/**
+ * Carries an error out of evaluation of a number or a boolean, which can't
+ * be returned as a {@link Value}. It has no stack trace, so throwing it is
+ * cheap, and everywhere else errors are just returned as values.
+ */
 public class EvaluationException extends Exception {
-    public EvaluationException(String message) {
-        super(message);
+    private final Value error;
+
+    public EvaluationException(Value error) {
+        super(null, null, false, false);
+        this.error = error;
+    }
+
+    /**
+     * @return the error as a value of type {@link Type#ERROR}.
+     */
+    public Value getError() {
+        return error;
+    }
+
+    @Override
+    public String getMessage() {
+        return error.getAsError().getMessage();
     }
 }
@@ -1,126 +1,86 @@
 package org.jsheet.evaluation;
 
 import org.jsheet.data.Cell;
+import org.jsheet.data.Formula;
 import org.jsheet.data.JSheetTableModel;
 import org.jsheet.expression.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiFunction;
+import java.util.OptionalDouble;
 
 import static org.jsheet.evaluation.Type.*;
 
+/**
+ * Interprets an expression. Errors are returned as values of type
+ * {@link Type#ERROR}, an operation on an error gives the error itself.
+ */
 public class Evaluator implements EvaluationVisitor<Value> {
     private final JSheetTableModel model;
+    private final Formula formula;
 
-    public Evaluator(JSheetTableModel model) {
+    /**
+     * @param formula is the formula being evaluated, which binds the references.
+     */
+    public Evaluator(JSheetTableModel model, Formula formula) {
         this.model = model;
+        this.formula = formula;
     }
 
     @Override
     public Value visit(Binop binop) throws EvaluationException {
+        Operator op = binop.getOp();
         Value leftValue = binop.getLeft().evaluate(this);
+        if (op.getKind() == Operator.Kind.LOGICAL)
+            return evalLogical(op, leftValue, binop.getRight());
         Value rightValue = binop.getRight().evaluate(this);
-        String op = binop.getOp();
-        if (isArithmetic(op))
-            return evalArithmetic(op, leftValue, rightValue);
-        if (isLogical(op))
-            return evalLogical(op, leftValue, rightValue);
-        if (isComparison(op))
-            return evalComparison(op, leftValue, rightValue);
-        throw new AssertionError();
-    }
-
-    @SuppressWarnings("Convert2MethodRef")
-    private Value evalArithmetic(String op, Value left, Value right) throws EvaluationException {
-        typecheck(left, DOUBLE);
-        typecheck(right, DOUBLE);
-        BiFunction<Double, Double, Double> binary;
-        switch (op) {
-            case "+":
-                binary = (a, b) -> a + b;
-                break;
-            case "-":
-                binary = (a, b) -> a - b;
-                break;
-            case "*":
-                binary = (a, b) -> a * b;
-                break;
-            case "/":
-                binary = (a, b) -> a / b;
-                break;
-            default:
-                throw new AssertionError();
-        }
-        Double result = binary.apply(left.getAsDouble(), right.getAsDouble());
-        return Value.of(result);
-    }
-
-    private Value evalLogical(String op, Value left, Value right) throws EvaluationException {
-        typecheck(left, BOOLEAN);
-        typecheck(right, BOOLEAN);
-        BiFunction<Boolean, Boolean, Boolean> binary;
-        switch (op) {
-            case "&&":
-                binary = Boolean::logicalAnd;
-                break;
-            case "||":
-                binary = Boolean::logicalOr;
-                break;
-            default:
-                throw new AssertionError();
-        }
-        Boolean result = binary.apply(left.getAsBoolean(), right.getAsBoolean());
-        return Value.of(result);
-    }
-
-    @SuppressWarnings("Convert2MethodRef")
-    private Value evalComparison(String op, Value left, Value right) throws EvaluationException {
-        typecheck(left, DOUBLE);
-        typecheck(right, DOUBLE);
-        BiFunction<Double, Double, Boolean> binary;
-        switch (op) {
-            case "<":
-                binary = (a, b) -> a < b;
-                break;
-            case "<=":
-                binary = (a, b) -> a <= b;
-                break;
-            case ">":
-                binary = (a, b) -> a > b;
-                break;
-            case ">=":
-                binary = (a, b) -> a >= b;
-                break;
-            case "==":
-                binary = (a, b) -> a.equals(b);
-                break;
-            case "!=":
-                binary = (a, b) -> !a.equals(b);
-                break;
+        if (leftValue.isError())
+            return leftValue;
+        if (rightValue.isError())
+            return rightValue;
+        switch (op.getKind()) {
+            case ARITHMETIC: {
+                if (leftValue.getTag() != DOUBLE)
+                    return ErrorValue.typeMismatch(DOUBLE, leftValue.getTag());
+                if (rightValue.getTag() != DOUBLE)
+                    return ErrorValue.typeMismatch(DOUBLE, rightValue.getTag());
+                return Value.of(op.apply(leftValue.getAsDouble(), rightValue.getAsDouble()));
+            }
+            case COMPARISON: {
+                if (leftValue.getTag() != DOUBLE)
+                    return ErrorValue.typeMismatch(DOUBLE, leftValue.getTag());
+                if (rightValue.getTag() != DOUBLE)
+                    return ErrorValue.typeMismatch(DOUBLE, rightValue.getTag());
+                return Value.of(op.compare(leftValue.getAsDouble(), rightValue.getAsDouble()));
+            }
             default:
                 throw new AssertionError();
         }
-        Boolean result = binary.apply(left.getAsDouble(), right.getAsDouble());
-        return Value.of(result);
-    }
-
-    private boolean isArithmetic(String op) {
-        return List.of("+", "-", "*", "/").contains(op);
-    }
-
-    private boolean isLogical(String op) {
-        return List.of("&&", "||").contains(op);
     }
 
-    private boolean isComparison(String op) {
-        return List.of("<", "<=", ">", ">=", "==", "!=").contains(op);
+    /**
+     * Evaluates {@code right} only if {@code left} doesn't decide the result,
+     * so references in it are not read then.
+     */
+    private Value evalLogical(Operator op, Value left, Expression right)
+        throws EvaluationException
+    {
+        Value error = check(left, BOOLEAN);
+        if (error != null)
+            return error;
+        if (left.getAsBoolean() == op.getDecisive())
+            return left;
+        Value rightValue = right.evaluate(this);
+        error = check(rightValue, BOOLEAN);
+        return error != null ? error : rightValue;
     }
 
     @Override
     public Value visit(Conditional conditional) throws EvaluationException {
         Value condValue = conditional.getCondition().evaluate(this);
-        typecheck(condValue, Type.BOOLEAN);
+        Value error = check(condValue, BOOLEAN);
+        if (error != null)
+            return error;
         Expression chosen = condValue.getAsBoolean()
             ? conditional.getThenClause()
             : conditional.getElseClause();
@@ -137,13 +97,16 @@ public class Evaluator implements EvaluationVisitor<Value> {
             return evalLength(args);
         if (name.equals("sum"))
             return evalSum(args);
-        throw new EvaluationException("Unknown function: " + name);
+        return ErrorValue.unknownFunction(name);
     }
 
     private Value evalPow(List<Expression> args) throws EvaluationException {
-        checkArgumentsNumber("pow", 2, args.size());
+        if (args.size() != 2)
+            return ErrorValue.argumentCount("pow");
         List<Value> values = evalArgs(args);
-        typecheck(values, List.of(DOUBLE, DOUBLE));
+        Value error = check(values, List.of(DOUBLE, DOUBLE));
+        if (error != null)
+            return error;
         Value baseValue = values.get(0);
         Value expValue = values.get(1);
         double result = Math.pow(baseValue.getAsDouble(), expValue.getAsDouble());
@@ -151,36 +114,54 @@ public class Evaluator implements EvaluationVisitor<Value> {
     }
 
     private Value evalLength(List<Expression> args) throws EvaluationException {
-        checkArgumentsNumber("length", 1, args.size());
+        if (args.size() != 1)
+            return ErrorValue.argumentCount("length");
         Value strValue = args.get(0).evaluate(this);
-        typecheck(strValue, STRING);
+        Value error = check(strValue, STRING);
+        if (error != null)
+            return error;
         double result = strValue.getAsString().length();
         return Value.of(result);
     }
 
     private Value evalSum(List<Expression> args) throws EvaluationException {
-        checkArgumentsNumber("sum", 1, args.size());
+        if (args.size() != 1)
+            return ErrorValue.argumentCount("sum");
         Value range = args.get(0).evaluate(this);
-        typecheck(range, RANGE);
-        double sum = 0;
-        for (var c : range.getAsRange()) {
-            Result res = model.getResultAt(c);
-            if (!res.isPresent())
-                throw new EvaluationException(res.message());
-            Value addend = res.get();
-            typecheck(addend, DOUBLE);
-            sum += addend.getAsDouble();
+        Value error = check(range, RANGE);
+        if (error != null)
+            return error;
+        try {
+            return Value.of(sum(model, range.getAsRange()));
+        } catch (EvaluationException e) {
+            return e.getError();
         }
-        return Value.of(sum);
     }
 
-    private void checkArgumentsNumber(String name, int expected, int actual)
-        throws EvaluationException
-    {
-        if (expected != actual) {
-            String message = "Wrong number of arguments for function: " + name;
-            throw new EvaluationException(message);
+    /**
+     * @throws EvaluationException if a cell of the range holds an error
+     * or something else than a number.
+     */
+    static double sum(JSheetTableModel model, RangeValue range) throws EvaluationException {
+        Cell first = range.getFirst();
+        Cell last = range.getLast();
+        OptionalDouble maintained = model.getMaintainedSum(first, last);
+        if (maintained.isPresent())
+            return maintained.getAsDouble();
+        double sum = 0;
+        // Go column by column so that plain numbers are read sequentially
+        for (int column = first.column; column <= last.column; column++) {
+            for (int row = first.row; row <= last.row; row++) {
+                if (model.isPlainDoubleAt(row, column)) {
+                    sum += model.getPlainDoubleAt(row, column);
+                    continue;
+                }
+                Value addend = model.getResultValueAt(new Cell(row, column));
+                typecheck(addend, DOUBLE);
+                sum += addend.getAsDouble();
+            }
         }
+        return sum;
     }
 
     private List<Value> evalArgs(List<Expression> args) throws EvaluationException {
@@ -207,56 +188,91 @@ public class Evaluator implements EvaluationVisitor<Value> {
     }
 
     @Override
-    public Value visit(Range range) throws EvaluationException {
-        Reference first = range.getFirst();
-        Reference last = range.getLast();
-        if (!first.isResolved())
-            throw new EvaluationException(unresolvedMessage(first));
-        if (!last.isResolved())
-            throw new EvaluationException(unresolvedMessage(last));
-        Cell firstCell = first.getCell();
-        Cell lastCell = last.getCell();
+    public Value visit(Range range) {
+        return rangeValue(formula, range);
+    }
+
+    /**
+     * @return the range as a value or an error if it's not a valid range.
+     */
+    static Value rangeValue(Formula formula, Range range) {
+        Cell firstCell = formula.getCell(range.getFirst());
+        Cell lastCell = formula.getCell(range.getLast());
+        if (firstCell == null)
+            return unresolved(formula, range.getFirst());
+        if (lastCell == null)
+            return unresolved(formula, range.getLast());
         if (firstCell.getRow() > lastCell.getRow()
             || firstCell.getColumn() > lastCell.getColumn())
         {
-            throw new EvaluationException("Incorrect range: " + range);
+            return ErrorValue.incorrectRange(formula.getName(range));
         }
-        RangeValue result = new RangeValue(firstCell, lastCell, range.toString());
-        return Value.of(result);
+        return Value.of(new RangeValue(firstCell, lastCell, formula.getName(range)));
     }
 
     @Override
-    public Value visit(Reference reference) throws EvaluationException {
-        if (!reference.isResolved())
-            throw new EvaluationException(unresolvedMessage(reference));
-        Result result = model.getResultAt(reference.getCell());
-        if (!result.isPresent())
-            throw new EvaluationException(result.message());
-        return result.get();
+    public Value visit(Reference reference) {
+        formula.markRead(reference);
+        Cell cell = formula.getCell(reference);
+        if (cell == null)
+            return unresolved(formula, reference);
+        return model.getResultValueAt(cell);
     }
 
-    private String unresolvedMessage(Reference reference) {
-        return String.format("Reference %s unresolved", reference.getName());
+    static Value unresolved(Formula formula, Reference reference) {
+        return ErrorValue.unresolved(formula.getName(reference));
     }
 
     /**
-     * Typechecks a list of values.
+     * Typechecks a list of values. Errors among the values come before
+     * mismatches, just like for operands of {@link #visit(Binop)}.
      *
-     * @throws EvaluationException if types mismatch.
+     * @return the first error among the values or the first mismatch,
+     * or {@code null} if types match.
      */
-    private void typecheck(List<Value> values, List<Type> types) throws EvaluationException {
-        for (int i = 0; i < values.size(); i++)
-            typecheck(values.get(i), types.get(i));
+    private static Value check(List<Value> values, List<Type> types) {
+        for (var value : values) {
+            if (value.isError())
+                return value;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            Value error = check(values.get(i), types.get(i));
+            if (error != null)
+                return error;
+        }
+        return null;
     }
 
-    private void typecheck(Value value, Type type) throws EvaluationException {
-        if (value.getTag() != type) {
-            String message = typeMismatchMessage(type, value.getTag());
-            throw new EvaluationException(message);
-        }
+    /**
+     * @return {@code value} if it's an error, a mismatch if it's not
+     * of {@code type} or {@code null} otherwise.
+     */
+    static Value check(Value value, Type type) {
+        if (value.getTag() == type)
+            return null;
+        return value.isError() ? value : ErrorValue.typeMismatch(type, value.getTag());
     }
 
-    private String typeMismatchMessage(Type expected, Type actual) {
-        return String.format("Expected %s and got %s", expected.name(), actual.name());
+    /**
+     * Same as {@link #check(Value, Type)}, but throws the error out of
+     * evaluation of a number or a boolean.
+     */
+    static void typecheck(Value value, Type type) throws EvaluationException {
+        Value error = check(value, type);
+        if (error != null)
+            throw new EvaluationException(error);
+    }
+
+    /**
+     * Same as {@link #typecheck(Value, Type)} for both operands, but an error
+     * of either operand comes before a mismatch, just like in {@link #visit(Binop)}.
+     */
+    static void typecheck(Value left, Value right, Type type) throws EvaluationException {
+        if (left.isError())
+            throw new EvaluationException(left);
+        if (right.isError())
+            throw new EvaluationException(right);
+        typecheck(left, type);
+        typecheck(right, type);
     }
 }
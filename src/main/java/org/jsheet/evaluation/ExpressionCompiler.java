@@ -0,0 +1,338 @@
+package org.jsheet.evaluation;
+
+import org.jsheet.data.Cell;
+import org.jsheet.data.Formula;
+import org.jsheet.data.JSheetTableModel;
+import org.jsheet.expression.*;
+
+import java.util.List;
+
+import static org.jsheet.evaluation.Type.*;
+
+/**
+ * Compiles an expression into a {@link CompiledExpression}. Everything which
+ * doesn't depend on the model, such as literals, ranges, operators and
+ * function lookups, is dealt with once at compile time. Subexpressions which
+ * are known to produce numbers or booleans are evaluated to unboxed
+ * {@code double} and {@code boolean} values without creating a {@link Value}.
+ * <p>
+ * References are bound to cells only when evaluated, by the formula passed
+ * to {@link CompiledExpression#evaluate(JSheetTableModel, Formula)}, so the
+ * compiled form of a {@link org.jsheet.data.FormulaTemplate} is shared by all
+ * the formulae of the template, e.g. the cells of a filled-down block.
+ * <p>
+ * Errors are values like any other. Unboxed evaluation can't return them,
+ * so there they are thrown as a stackless {@link EvaluationException} and
+ * caught back into a value at the boundary of the unboxed subexpression.
+ */
+public class ExpressionCompiler implements ExpressionVisitor<CompiledExpression> {
+    private static final ExpressionCompiler INSTANCE = new ExpressionCompiler();
+
+    private ExpressionCompiler() {
+    }
+
+    public static CompiledExpression compile(Expression expression) {
+        return expression.accept(INSTANCE);
+    }
+
+    @Override
+    public CompiledExpression visit(Binop binop) {
+        CompiledExpression left = binop.getLeft().accept(this);
+        CompiledExpression right = binop.getRight().accept(this);
+        Operator op = binop.getOp();
+        switch (op.getKind()) {
+            case ARITHMETIC: return arithmetic(left, right, op);
+            case LOGICAL: return logical(left, right, op);
+            case COMPARISON: return comparison(left, right, op);
+            default: throw new AssertionError();
+        }
+    }
+
+    private CompiledExpression arithmetic(
+        CompiledExpression left, CompiledExpression right, Operator op)
+    {
+        if (left instanceof DoubleExpression && right instanceof DoubleExpression) {
+            DoubleExpression l = (DoubleExpression) left;
+            DoubleExpression r = (DoubleExpression) right;
+            return new DoubleExpression() {
+                @Override
+                double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                    return op.apply(l.evaluateDouble(model, formula), r.evaluateDouble(model, formula));
+                }
+            };
+        }
+        return new DoubleExpression() {
+            @Override
+            double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value l = left.evaluate(model, formula);
+                Value r = right.evaluate(model, formula);
+                Evaluator.typecheck(l, r, DOUBLE);
+                return op.apply(l.getAsDouble(), r.getAsDouble());
+            }
+        };
+    }
+
+    private CompiledExpression comparison(
+        CompiledExpression left, CompiledExpression right, Operator op)
+    {
+        if (left instanceof DoubleExpression && right instanceof DoubleExpression) {
+            DoubleExpression l = (DoubleExpression) left;
+            DoubleExpression r = (DoubleExpression) right;
+            return new BooleanExpression() {
+                @Override
+                boolean evaluateBoolean(JSheetTableModel model, Formula formula) throws EvaluationException {
+                    return op.compare(l.evaluateDouble(model, formula), r.evaluateDouble(model, formula));
+                }
+            };
+        }
+        return new BooleanExpression() {
+            @Override
+            boolean evaluateBoolean(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value l = left.evaluate(model, formula);
+                Value r = right.evaluate(model, formula);
+                Evaluator.typecheck(l, r, DOUBLE);
+                return op.compare(l.getAsDouble(), r.getAsDouble());
+            }
+        };
+    }
+
+    private CompiledExpression logical(
+        CompiledExpression left, CompiledExpression right, Operator op)
+    {
+        // The right operand is only evaluated if needed, just like the evaluator does
+        boolean decisive = op.getDecisive();
+        if (left instanceof BooleanExpression && right instanceof BooleanExpression) {
+            BooleanExpression l = (BooleanExpression) left;
+            BooleanExpression r = (BooleanExpression) right;
+            return new BooleanExpression() {
+                @Override
+                boolean evaluateBoolean(JSheetTableModel model, Formula formula) throws EvaluationException {
+                    return l.evaluateBoolean(model, formula) == decisive ? decisive : r.evaluateBoolean(model, formula);
+                }
+            };
+        }
+        return new BooleanExpression() {
+            @Override
+            boolean evaluateBoolean(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value l = left.evaluate(model, formula);
+                Evaluator.typecheck(l, BOOLEAN);
+                if (l.getAsBoolean() == decisive)
+                    return decisive;
+                Value r = right.evaluate(model, formula);
+                Evaluator.typecheck(r, BOOLEAN);
+                return r.getAsBoolean();
+            }
+        };
+    }
+
+    @Override
+    public CompiledExpression visit(Conditional conditional) {
+        CompiledExpression condition = conditional.getCondition().accept(this);
+        CompiledExpression thenClause = conditional.getThenClause().accept(this);
+        CompiledExpression elseClause = conditional.getElseClause().accept(this);
+        if (thenClause instanceof DoubleExpression && elseClause instanceof DoubleExpression) {
+            DoubleExpression t = (DoubleExpression) thenClause;
+            DoubleExpression e = (DoubleExpression) elseClause;
+            return new DoubleExpression() {
+                @Override
+                double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                    return evaluateCondition(condition, model, formula)
+                        ? t.evaluateDouble(model, formula)
+                        : e.evaluateDouble(model, formula);
+                }
+            };
+        }
+        return new CompiledExpression() {
+            @Override
+            public Value evaluate(JSheetTableModel model, Formula formula) throws EvaluationException {
+                return evaluateCondition(condition, model, formula)
+                    ? thenClause.evaluate(model, formula)
+                    : elseClause.evaluate(model, formula);
+            }
+        };
+    }
+
+    private static boolean evaluateCondition(
+        CompiledExpression condition, JSheetTableModel model, Formula formula)
+        throws EvaluationException
+    {
+        if (condition instanceof BooleanExpression)
+            return ((BooleanExpression) condition).evaluateBoolean(model, formula);
+        Value value = condition.evaluate(model, formula);
+        Evaluator.typecheck(value, BOOLEAN);
+        return value.getAsBoolean();
+    }
+
+    @Override
+    public CompiledExpression visit(Function function) {
+        String name = function.getName();
+        List<Expression> args = function.getArgs();
+        int expected;
+        switch (name) {
+            case "pow": expected = 2; break;
+            case "length":
+            case "sum": expected = 1; break;
+            default: return new Constant(ErrorValue.unknownFunction(name));
+        }
+        if (args.size() != expected)
+            return new Constant(ErrorValue.argumentCount(name));
+        switch (name) {
+            case "pow": return pow(args.get(0).accept(this), args.get(1).accept(this));
+            case "length": return length(args.get(0).accept(this));
+            case "sum": return sum(args.get(0).accept(this));
+            default: throw new AssertionError();
+        }
+    }
+
+    private CompiledExpression pow(CompiledExpression base, CompiledExpression exp) {
+        if (base instanceof DoubleExpression && exp instanceof DoubleExpression) {
+            DoubleExpression b = (DoubleExpression) base;
+            DoubleExpression e = (DoubleExpression) exp;
+            return new DoubleExpression() {
+                @Override
+                double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                    return Math.pow(b.evaluateDouble(model, formula), e.evaluateDouble(model, formula));
+                }
+            };
+        }
+        return new DoubleExpression() {
+            @Override
+            double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value b = base.evaluate(model, formula);
+                Value e = exp.evaluate(model, formula);
+                Evaluator.typecheck(b, e, DOUBLE);
+                return Math.pow(b.getAsDouble(), e.getAsDouble());
+            }
+        };
+    }
+
+    private CompiledExpression length(CompiledExpression arg) {
+        return new DoubleExpression() {
+            @Override
+            double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value value = arg.evaluate(model, formula);
+                Evaluator.typecheck(value, STRING);
+                return value.getAsString().length();
+            }
+        };
+    }
+
+    private CompiledExpression sum(CompiledExpression arg) {
+        return new DoubleExpression() {
+            @Override
+            double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException {
+                Value value = arg.evaluate(model, formula);
+                Evaluator.typecheck(value, RANGE);
+                return Evaluator.sum(model, value.getAsRange());
+            }
+        };
+    }
+
+    @Override
+    public CompiledExpression visit(BooleanLiteral literal) {
+        boolean b = literal.getValue();
+        Value value = Value.of(b);
+        return new BooleanExpression() {
+            @Override
+            boolean evaluateBoolean(JSheetTableModel model, Formula formula) {
+                return b;
+            }
+
+            @Override
+            public Value evaluate(JSheetTableModel model, Formula formula) {
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public CompiledExpression visit(DoubleLiteral literal) {
+        double d = literal.getValue();
+        Value value = Value.of(d);
+        return new DoubleExpression() {
+            @Override
+            double evaluateDouble(JSheetTableModel model, Formula formula) {
+                return d;
+            }
+
+            @Override
+            public Value evaluate(JSheetTableModel model, Formula formula) {
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public CompiledExpression visit(StringLiteral literal) {
+        return new Constant(Value.of(literal.getValue()));
+    }
+
+    @Override
+    public CompiledExpression visit(Range range) {
+        return new CompiledExpression() {
+            @Override
+            public Value evaluate(JSheetTableModel model, Formula formula) {
+                return Evaluator.rangeValue(formula, range);
+            }
+        };
+    }
+
+    @Override
+    public CompiledExpression visit(Reference reference) {
+        return new CompiledExpression() {
+            @Override
+            public Value evaluate(JSheetTableModel model, Formula formula) {
+                formula.markRead(reference);
+                Cell cell = formula.getCell(reference);
+                if (cell == null)
+                    return Evaluator.unresolved(formula, reference);
+                return model.getResultValueAt(cell);
+            }
+        };
+    }
+
+    /**
+     * An expression which always evaluates to a number.
+     */
+    abstract static class DoubleExpression extends CompiledExpression {
+        abstract double evaluateDouble(JSheetTableModel model, Formula formula) throws EvaluationException;
+
+        @Override
+        public Value evaluate(JSheetTableModel model, Formula formula) {
+            try {
+                return Value.of(evaluateDouble(model, formula));
+            } catch (EvaluationException e) {
+                return e.getError();
+            }
+        }
+    }
+
+    /**
+     * An expression which always evaluates to a boolean.
+     */
+    abstract static class BooleanExpression extends CompiledExpression {
+        abstract boolean evaluateBoolean(JSheetTableModel model, Formula formula) throws EvaluationException;
+
+        @Override
+        public Value evaluate(JSheetTableModel model, Formula formula) {
+            try {
+                return Value.of(evaluateBoolean(model, formula));
+            } catch (EvaluationException e) {
+                return e.getError();
+            }
+        }
+    }
+
+    private static class Constant extends CompiledExpression {
+        final Value value;
+
+        Constant(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        public Value evaluate(JSheetTableModel model, Formula formula) {
+            return value;
+        }
+    }
+}
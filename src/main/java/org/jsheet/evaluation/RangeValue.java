@@ -20,6 +20,14 @@ public class RangeValue implements Iterable<Cell> {
         return name;
     }
 
+    public Cell getFirst() {
+        return first;
+    }
+
+    public Cell getLast() {
+        return last;
+    }
+
     @Override
     public Iterator<Cell> iterator() {
         return new RangeIterator(first, last);
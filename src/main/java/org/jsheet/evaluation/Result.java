@@ -4,21 +4,17 @@ import java.util.Objects;
 
 /**
  * Represent a computation result which is either
- * a result {@code value} or an error message {@code message}.
+ * a result {@code value} or an error, see {@link ErrorValue}.
  */
 public class Result {
     private final Value value;
-    private final String message;
-    private final boolean isPresent;
 
-    private Result(Value value, String message, boolean isPresent) {
+    private Result(Value value) {
         this.value = value;
-        this.message = message;
-        this.isPresent = isPresent;
     }
 
     public boolean isPresent() {
-        return isPresent;
+        return !value.isError();
     }
 
     public Value get() {
@@ -27,37 +23,51 @@ public class Result {
         throw new IllegalStateException();
     }
 
-    public String message() {
+    /**
+     * @return the error as a value of type {@link Type#ERROR}.
+     */
+    public Value getError() {
         if (!isPresent())
-            return message;
+            return value;
         throw new IllegalStateException();
     }
 
+    public String message() {
+        return getError().getAsError().getMessage();
+    }
+
     public static Result success(Value value) {
-        return new Result(value, null, true);
+        if (value.isError())
+            throw new IllegalArgumentException("an error");
+        return new Result(value);
+    }
+
+    public static Result failure(Value error) {
+        if (!error.isError())
+            throw new IllegalArgumentException("not an error");
+        return new Result(error);
     }
 
     public static Result failure(String message) {
-        return new Result(null, message, false);
+        return new Result(ErrorValue.of(message));
+    }
+
+    /**
+     * @return a failure if {@code value} is an error or a success otherwise.
+     */
+    public static Result of(Value value) {
+        return new Result(value);
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
-
-        Result result = (Result) o;
-
-        if (isPresent != result.isPresent) return false;
-        if (!Objects.equals(value, result.value)) return false;
-        return Objects.equals(message, result.message);
+        return Objects.equals(value, ((Result) o).value);
     }
 
     @Override
     public int hashCode() {
-        int result = value != null ? value.hashCode() : 0;
-        result = 31 * result + (message != null ? message.hashCode() : 0);
-        result = 31 * result + (isPresent ? 1 : 0);
-        return result;
+        return Objects.hashCode(value);
     }
 }
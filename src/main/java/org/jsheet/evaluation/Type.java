@@ -1,5 +1,5 @@
 package org.jsheet.evaluation;
 
 public enum Type {
-    BOOLEAN, DOUBLE, STRING, FORMULA, RANGE
+    BOOLEAN, DOUBLE, STRING, FORMULA, RANGE, ERROR
 }
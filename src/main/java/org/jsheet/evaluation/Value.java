@@ -4,11 +4,33 @@ import org.jsheet.data.Formula;
 
 import java.util.Objects;
 
+/**
+ * A value of a cell or of an expression. Numbers and booleans are held
+ * unboxed by {@link DoubleValue} and {@link BooleanValue}, and the values
+ * which occur most often are shared instances, so that arithmetic doesn't
+ * allocate more than one object per step and often none at all.
+ */
 public class Value {
+    public static final Value TRUE = new BooleanValue(true);
+    public static final Value FALSE = new BooleanValue(false);
+    public static final Value EMPTY_STRING = new Value(Type.STRING, "");
+
+    // Integral numbers in [SMALL_MIN, SMALL_MAX] are shared
+    private static final int SMALL_MIN = -128;
+    private static final int SMALL_MAX = 1023;
+    private static final Value[] SMALL = new Value[SMALL_MAX - SMALL_MIN + 1];
+    static {
+        for (int i = 0; i < SMALL.length; i++)
+            SMALL[i] = new DoubleValue(SMALL_MIN + i);
+    }
+
+    public static final Value ZERO = SMALL[-SMALL_MIN];
+    public static final Value ONE = SMALL[1 - SMALL_MIN];
+
     private final Type tag;
     private final Object value;
 
-    private Value(Type tag, Object value) {
+    Value(Type tag, Object value) {
         this.tag = tag;
         this.value = value;
     }
@@ -17,11 +39,11 @@ public class Value {
         return tag;
     }
 
-    public Boolean getAsBoolean() {
+    public boolean getAsBoolean() {
         return (Boolean) value;
     }
 
-    public Double getAsDouble() {
+    public double getAsDouble() {
         return (Double) value;
     }
 
@@ -37,16 +59,31 @@ public class Value {
         return (RangeValue) value;
     }
 
-    public static Value of(Boolean b) {
-        return new Value(Type.BOOLEAN, b);
+    public ErrorValue getAsError() {
+        return (ErrorValue) value;
+    }
+
+    public boolean isError() {
+        return tag == Type.ERROR;
     }
 
-    public static Value of(Double d) {
-        return new Value(Type.DOUBLE, d);
+    public static Value of(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    public static Value of(double d) {
+        int i = (int) d;
+        // Negative zero is not shared as it differs from zero
+        if (i == d && i >= SMALL_MIN && i <= SMALL_MAX
+            && (i != 0 || Double.doubleToRawLongBits(d) == 0))
+        {
+            return SMALL[i - SMALL_MIN];
+        }
+        return new DoubleValue(d);
     }
 
     public static Value of(String s) {
-        return new Value(Type.STRING, s);
+        return s.isEmpty() ? EMPTY_STRING : new Value(Type.STRING, s);
     }
 
     public static Value of(Formula e) {
@@ -57,6 +94,13 @@ public class Value {
         return new Value(Type.RANGE, r);
     }
 
+    /**
+     * Use factories of {@link ErrorValue} instead.
+     */
+    static Value of(ErrorValue e) {
+        return new Value(Type.ERROR, e);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -78,12 +122,13 @@ public class Value {
     @Override
     public String toString() {
         switch (getTag()) {
-            case BOOLEAN: return getAsBoolean().toString();
-            case DOUBLE: return getAsDouble().toString();
+            case BOOLEAN: return Boolean.toString(getAsBoolean());
+            case DOUBLE: return Double.toString(getAsDouble());
             case STRING: return getAsString();
-            case FORMULA: return getAsFormula().originalDefinition;
+            case FORMULA: return getAsFormula().getDefinition();
             /* Range values only occur inside formulae */
             case RANGE: throw new AssertionError();
+            case ERROR: return getAsError().getMessage();
         }
         throw new AssertionError();
     }
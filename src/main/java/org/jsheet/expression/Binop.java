@@ -7,16 +7,23 @@ import java.util.Objects;
 import java.util.stream.Stream;
 
 public class Binop extends Expression {
-    private final String op;
+    private final Operator op;
     private final Expression left;
     private final Expression right;
 
-    public Binop(String op, Expression left, Expression right) {
+    public Binop(Operator op, Expression left, Expression right) {
         this.op = op;
         this.left = left;
         this.right = right;
     }
 
+    /**
+     * @throws IllegalArgumentException if {@code op} is not a symbol of an {@link Operator}.
+     */
+    public Binop(String op, Expression left, Expression right) {
+        this(Operator.of(op), left, right);
+    }
+
     @Override
     public <R> R accept(ExpressionVisitor<R> visitor) {
         return visitor.visit(this);
@@ -37,7 +44,7 @@ public class Binop extends Expression {
         return Stream.concat(left.getRanges(), right.getRanges());
     }
 
-    public String getOp() {
+    public Operator getOp() {
         return op;
     }
 
@@ -56,14 +63,14 @@ public class Binop extends Expression {
 
         Binop binop = (Binop) o;
 
-        if (!Objects.equals(op, binop.op)) return false;
+        if (op != binop.op) return false;
         if (!Objects.equals(left, binop.left)) return false;
         return Objects.equals(right, binop.right);
     }
 
     @Override
     public int hashCode() {
-        int result = op != null ? op.hashCode() : 0;
+        int result = op.getSymbol().hashCode();
         result = 31 * result + (left != null ? left.hashCode() : 0);
         result = 31 * result + (right != null ? right.hashCode() : 0);
         return result;
@@ -0,0 +1,104 @@
+package org.jsheet.expression;
+
+/**
+ * A binary operator. Operators are resolved once when a formula is parsed
+ * or loaded, so that evaluation dispatches on the constant and applies it
+ * to primitive operands without looking at its symbol.
+ */
+public enum Operator {
+    ADD("+", Kind.ARITHMETIC),
+    SUBTRACT("-", Kind.ARITHMETIC),
+    MULTIPLY("*", Kind.ARITHMETIC),
+    DIVIDE("/", Kind.ARITHMETIC),
+    AND("&&", Kind.LOGICAL),
+    OR("||", Kind.LOGICAL),
+    LT("<", Kind.COMPARISON),
+    LE("<=", Kind.COMPARISON),
+    GT(">", Kind.COMPARISON),
+    GE(">=", Kind.COMPARISON),
+    EQ("==", Kind.COMPARISON),
+    NE("!=", Kind.COMPARISON);
+
+    public enum Kind {
+        /** Numbers to a number */
+        ARITHMETIC,
+        /** Booleans to a boolean, the right one is only evaluated if needed */
+        LOGICAL,
+        /** Numbers to a boolean */
+        COMPARISON
+    }
+
+    private final String symbol;
+    private final Kind kind;
+
+    Operator(String symbol, Kind kind) {
+        this.symbol = symbol;
+        this.kind = kind;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Applies an {@link Kind#ARITHMETIC} operator.
+     */
+    public double apply(double a, double b) {
+        switch (this) {
+            case ADD: return a + b;
+            case SUBTRACT: return a - b;
+            case MULTIPLY: return a * b;
+            case DIVIDE: return a / b;
+            default: throw new AssertionError();
+        }
+    }
+
+    /**
+     * @return the value of the left operand of a {@link Kind#LOGICAL}
+     * operator which is the result, so the right one is not evaluated.
+     * Otherwise the result is the right operand.
+     */
+    public boolean getDecisive() {
+        switch (this) {
+            case AND: return false;
+            case OR: return true;
+            default: throw new AssertionError();
+        }
+    }
+
+    /**
+     * Applies a {@link Kind#COMPARISON} operator. Numbers are equal
+     * in the sense of {@link Double#equals(Object)}.
+     */
+    public boolean compare(double a, double b) {
+        switch (this) {
+            case LT: return a < b;
+            case LE: return a <= b;
+            case GT: return a > b;
+            case GE: return a >= b;
+            case EQ: return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+            case NE: return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+            default: throw new AssertionError();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if there's no operator with the symbol.
+     */
+    public static Operator of(String symbol) {
+        for (Operator op : values()) {
+            if (op.symbol.equals(symbol))
+                return op;
+        }
+        throw new IllegalArgumentException("Unknown operator: " + symbol);
+    }
+
+    @Override
+    public String toString() {
+        return symbol;
+    }
+}
@@ -1,14 +1,12 @@
 package org.jsheet.expression;
 
-import org.jsheet.data.Cell;
 import org.jsheet.evaluation.EvaluationException;
 import org.jsheet.evaluation.EvaluationVisitor;
 
-import java.util.Iterator;
 import java.util.Objects;
 import java.util.stream.Stream;
 
-public class Range extends Expression implements Iterable<Cell> {
+public class Range extends Expression {
     private final Reference first;
     private final Reference last;
 
@@ -27,10 +25,6 @@ public class Range extends Expression implements Iterable<Cell> {
         return visitor.visit(this);
     }
 
-    public boolean isResolved() {
-        return first.isResolved() && last.isResolved();
-    }
-
     @Override
     public Stream<Reference> getReferences() {
         return Stream.concat(first.getReferences(), last.getReferences());
@@ -71,11 +65,4 @@ public class Range extends Expression implements Iterable<Cell> {
     public String toString() {
         return String.format("%s:%s", first, last);
     }
-
-    @Override
-    public Iterator<Cell> iterator() {
-        if (!isResolved())
-            throw new IllegalStateException("unresolved range");
-        return new RangeIterator(first.getCell(), last.getCell());
-    }
 }
@@ -1,34 +1,71 @@
 package org.jsheet.expression;
 
+import org.jsheet.data.A1Notation;
 import org.jsheet.data.Cell;
 import org.jsheet.data.JSheetTableModel;
 import org.jsheet.evaluation.EvaluationException;
 import org.jsheet.evaluation.EvaluationVisitor;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+/**
+ * A reference to a cell by its name. References are immutable and don't know
+ * which cell of a model they point to, so an expression can be shared by
+ * formulae in different cells or models. The cells are bound per formula, see
+ * {@link org.jsheet.data.Formula#getCell(Reference)}.
+ */
 public class Reference extends Expression {
-    private static final Pattern REFERENCE_PATTERN
-        = Pattern.compile("(\\$)?([a-zA-Z]+)(\\$)?(\\d+)");
     public static final String OUT_OF_BOUNDS_REFERENCE_NAME = "REF";
 
     private final String name;
-    private Cell cell;
-    private boolean isRowAbsolute = false;
-    private boolean isColumnAbsolute = false;
+    private final boolean isRowAbsolute;
+    private final boolean isColumnAbsolute;
+
+    // Coordinates decoded from the name, or -1 if it's not a cell name
+    private final int decodedRow;
+    private final int decodedColumn;
+
+    // Position among the references of the formula, or -1
+    private final int index;
 
     public Reference(String name) {
-        this.name = name;
+        this(name, -1);
     }
 
-    public Reference(String name, Cell cell, boolean isRowAbsolute, boolean isColumnAbsolute) {
+    /**
+     * @param index is the position of the reference among the references
+     * of its formula, see {@link org.jsheet.data.FormulaTemplate#getReferences()}.
+     */
+    public Reference(String name, int index) {
+        this.name = name;
+        this.index = index;
+        long decoded = A1Notation.decode(name);
+        if (decoded == A1Notation.INVALID) {
+            this.decodedRow = -1;
+            this.decodedColumn = -1;
+            this.isRowAbsolute = false;
+            this.isColumnAbsolute = false;
+        } else {
+            this.decodedRow = A1Notation.row(decoded);
+            this.decodedColumn = A1Notation.column(decoded);
+            this.isRowAbsolute = A1Notation.isRowAbsolute(decoded);
+            this.isColumnAbsolute = A1Notation.isColumnAbsolute(decoded);
+        }
+    }
+
+    /**
+     * Creates a reference whose name has been decoded already.
+     */
+    public Reference(String name, int row, int column,
+        boolean isRowAbsolute, boolean isColumnAbsolute, int index)
+    {
         this.name = name;
-        this.cell = cell;
+        this.decodedRow = row;
+        this.decodedColumn = column;
         this.isRowAbsolute = isRowAbsolute;
         this.isColumnAbsolute = isColumnAbsolute;
+        this.index = index;
     }
 
     @Override
@@ -41,41 +78,69 @@ public class Reference extends Expression {
         return visitor.visit(this);
     }
 
-    public boolean isResolved() {
-        return cell != null;
+    /**
+     * @return the cell this reference points to in {@code model}
+     * or {@code null} if there is no such cell.
+     */
+    public Cell resolve(JSheetTableModel model) {
+        return resolve(model, 0, 0);
     }
 
-    public Cell getCell() {
-        return cell;
+    /**
+     * Same as {@link #resolve(JSheetTableModel)} for the reference shifted
+     * by {@code rowShift} and {@code columnShift}, except for absolute parts.
+     */
+    public Cell resolve(JSheetTableModel model, int rowShift, int columnShift) {
+        if (!isResolvable(model, rowShift, columnShift))
+            return null;
+        return new Cell(shiftedRow(rowShift), shiftedColumn(columnShift));
     }
 
-    public void resolve(JSheetTableModel model) {
-        if (!isResolved())
-            cell = resolve(name, model);
+    public boolean isResolvable(JSheetTableModel model, int rowShift, int columnShift) {
+        return isCellName()
+            && model.containsCell(shiftedRow(rowShift), shiftedColumn(columnShift));
     }
 
-    public Cell resolve(String name, JSheetTableModel model) {
-        Matcher matcher = REFERENCE_PATTERN.matcher(name);
-        if (!matcher.matches())
-            return null;
+    /**
+     * @return a reference to the cell this one points to shifted by
+     * {@code rowShift} and {@code columnShift}, except for absolute parts.
+     */
+    public Reference shift(int rowShift, int columnShift) {
+        if (!isCellName() || rowShift == 0 && columnShift == 0)
+            return this;
+        int row = shiftedRow(rowShift);
+        int column = shiftedColumn(columnShift);
+        String shiftedName = A1Notation.name(row, column, isRowAbsolute, isColumnAbsolute);
+        return new Reference(shiftedName, row, column, isRowAbsolute, isColumnAbsolute, index);
+    }
 
-        if (matcher.group(1) != null)
-            isColumnAbsolute = true;
+    /**
+     * @return the name of {@link #shift(int, int)}.
+     */
+    public String getName(int rowShift, int columnShift) {
+        if (!isCellName() || rowShift == 0 && columnShift == 0)
+            return name;
+        return A1Notation.name(shiftedRow(rowShift), shiftedColumn(columnShift),
+            isRowAbsolute, isColumnAbsolute);
+    }
 
-        String column = matcher.group(2);
-        int columnIndex = model.findColumn(column);
-        if (columnIndex == -1)
-            return null;
+    /**
+     * @return whether the name of this reference is a cell name like {@code B7}.
+     */
+    public boolean isCellName() {
+        return decodedRow >= 0;
+    }
 
-        if (matcher.group(3) != null)
-            isRowAbsolute = true;
+    private int shiftedRow(int rowShift) {
+        return isRowAbsolute ? decodedRow : decodedRow + rowShift;
+    }
 
-        String row = matcher.group(4);
-        int rowIndex = Integer.parseInt(row);
-        if (rowIndex >= model.getRowCount())
-            return null;
+    private int shiftedColumn(int columnShift) {
+        return isColumnAbsolute ? decodedColumn : decodedColumn + columnShift;
+    }
 
-        return new Cell(rowIndex, columnIndex);
+    public int getIndex() {
+        return index;
     }
 
     @Override
@@ -0,0 +1,91 @@
+package org.jsheet.parser;
+
+import org.jsheet.data.Formula;
+import org.jsheet.data.FormulaTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed formulae keyed by their definitions, which evicts
+ * the least recently used entries. Formulae with the same definition share
+ * a {@link FormulaTemplate}, so a column filled with the same formula or
+ * a file with many copies of it is parsed only once.
+ * <p>
+ * The cache is thread-safe. Concurrent misses may parse a definition twice,
+ * which is harmless.
+ */
+public class FormulaCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Map<String, FormulaTemplate> templates;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public FormulaCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("illegal capacity");
+        templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FormulaTemplate> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return a new formula with unresolved references and a shared template.
+     */
+    public Formula parse(String definition) throws ParseException {
+        FormulaTemplate template = lookup(definition);
+        if (template == null) {
+            // Parse outside of the lock
+            template = ParserUtils.parseTemplate(definition);
+            store(definition, template);
+        }
+        return new Formula(template);
+    }
+
+    private synchronized FormulaTemplate lookup(String definition) {
+        FormulaTemplate template = templates.get(definition);
+        if (template != null)
+            hitCount++;
+        else
+            missCount++;
+        return template;
+    }
+
+    private synchronized void store(String definition, FormulaTemplate template) {
+        templates.putIfAbsent(definition, template);
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the share of lookups which were hits or 0 if there were none.
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    /**
+     * Removes all the entries and resets the statistics.
+     */
+    public synchronized void clear() {
+        templates.clear();
+        hitCount = 0;
+        missCount = 0;
+    }
+}
@@ -1,5 +1,9 @@
 package org.jsheet.parser;
 
+import org.jsheet.data.A1Notation;
+import org.jsheet.expression.Operator;
+import org.jsheet.expression.Reference;
+
 import java.util.Map;
 
 public class Lexer {
@@ -10,20 +14,20 @@ public class Lexer {
         COMMA, COLON, IF, THEN, ELSE,
         ID, BOOL, NUM, STR, END;
 
-        public String binop() {
+        public Operator binop() {
             switch (this) {
-                case MUL:   return "*";
-                case DIV:   return "/";
-                case PLUS:  return "+";
-                case MINUS: return "-";
-                case LT:    return "<";
-                case LE:    return "<=";
-                case GT:    return ">";
-                case GE:    return ">=";
-                case EQ:    return "==";
-                case NE:    return "!=";
-                case AND:   return "&&";
-                case OR:    return "||";
+                case MUL:   return Operator.MULTIPLY;
+                case DIV:   return Operator.DIVIDE;
+                case PLUS:  return Operator.ADD;
+                case MINUS: return Operator.SUBTRACT;
+                case LT:    return Operator.LT;
+                case LE:    return Operator.LE;
+                case GT:    return Operator.GT;
+                case GE:    return Operator.GE;
+                case EQ:    return Operator.EQ;
+                case NE:    return Operator.NE;
+                case AND:   return Operator.AND;
+                case OR:    return Operator.OR;
                 default:    throw new IllegalStateException("not a binop");
             }
         }
@@ -43,20 +47,50 @@ public class Lexer {
     private final CharSequence input;
     private int position;
 
+    // The current identifier is only turned into a string on request
+    private int idStart;
+    private int idEnd;
     private String currentId;
     private boolean currentBool;
     private double currentNum;
     private String currentString;
 
+    // The current identifier decoded as a cell reference, see A1Notation
+    private long decodedReference = A1Notation.INVALID;
+
     public Lexer(CharSequence input) {
         this.input = input;
         this.position = 0;
     }
 
     public String currentId() {
+        if (currentId == null)
+            currentId = input.subSequence(idStart, idEnd).toString();
         return currentId;
     }
 
+    /**
+     * @return whether the current identifier has the form of a cell reference,
+     * such as {@code A1} or {@code $B$2}.
+     */
+    public boolean isCurrentReference() {
+        return decodedReference != A1Notation.INVALID;
+    }
+
+    /**
+     * @return the current identifier as a reference with its cell already
+     * decoded, which only needs to be checked against the bounds of a model.
+     * @param index is the position of the reference in its formula.
+     */
+    public Reference currentReference(int index) {
+        return new Reference(currentId(),
+            A1Notation.row(decodedReference),
+            A1Notation.column(decodedReference),
+            A1Notation.isRowAbsolute(decodedReference),
+            A1Notation.isColumnAbsolute(decodedReference),
+            index);
+    }
+
     public boolean currentBool() {
         return currentBool;
     }
@@ -129,73 +163,109 @@ public class Lexer {
             case ',': return Token.COMMA;
             case ':': return Token.COLON;
             case '\"': {
-                StringBuilder sb = new StringBuilder();
-                while (hasNextChar() && peek() != '\"') {
-                    char c1 = nextChar();
-                    if (c1 != '\\') {
-                        sb.append(c1);
-                        continue;
-                    }
-                    // Test for escape sequence
-                    if (!hasNextChar())
-                        throw new ParseException();
-                    char c2 = nextChar();
-                    if (c2 == '\"') {
-                        sb.append("\"");
-                    } else {
-                        sb.append(c1);
-                        sb.append(c2);
+                int start = position;
+                boolean escaped = false;
+                int end = start;
+                while (end < input.length() && input.charAt(end) != '\"') {
+                    if (input.charAt(end) == '\\') {
+                        // Test for escape sequence
+                        if (end + 1 == input.length())
+                            throw new ParseException();
+                        escaped = true;
+                        end++;
                     }
+                    end++;
                 }
-                if (!hasNextChar())
+                if (end == input.length())
                     throw new ParseException();
-                nextChar();
-                currentString = sb.toString();
+                position = end + 1;
+                currentString = escaped
+                    ? unescape(start, end)
+                    : input.subSequence(start, end).toString();
                 return Token.STR;
             }
         }
 
         if (Character.isDigit(c) || c == '.') {
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
-            if (Character.isDigit(c)) {
-                // Match whole part and the dot
-                while (hasNextChar() && Character.isDigit(peek())) {
-                    sb.append(nextChar());
-                }
-                if (hasNextChar() && peek() == '.') {
-                    sb.append(nextChar());
-                }
-            }
-            // Match decimal part
-            while (hasNextChar() && Character.isDigit(peek())) {
-                sb.append(nextChar());
-            }
-            currentNum = Double.parseDouble(sb.toString());
+            int start = position - 1;
+            int end = NumberScanner.scan(input, start, input.length());
+            if (end == start)
+                throw new ParseException();
+            currentNum = NumberScanner.parse(input, start, end);
+            position = end;
             return Token.NUM;
         }
 
         if (isValidIdStartCharacter(c)) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(c);
+            idStart = position - 1;
             while (hasNextChar() && isValidIdCharacter(peek())) {
-                sb.append(nextChar());
-            }
-            String name = sb.toString();
-            if (KEYWORDS.containsKey(name)) {
-                return KEYWORDS.get(name);
+                position++;
             }
-            if (BOOL_LITERALS.containsKey(name)) {
-                currentBool = BOOL_LITERALS.get(name);
-                return Token.BOOL;
-            }
-            currentId = name;
+            idEnd = position;
+            currentId = null;
+            Token keyword = keyword();
+            if (keyword != null)
+                return keyword;
+            decodedReference = A1Notation.decode(input, idStart, idEnd);
             return Token.ID;
         }
 
         throw new ParseException();
     }
 
+    /**
+     * Same as {@link #KEYWORDS} and {@link #BOOL_LITERALS} lookups
+     * without creating a string.
+     */
+    private Token keyword() {
+        switch (idEnd - idStart) {
+            case 2:
+                return matches("if") ? Token.IF : null;
+            case 4:
+                if (matches("then"))
+                    return Token.THEN;
+                if (matches("else"))
+                    return Token.ELSE;
+                if (matches("true")) {
+                    currentBool = true;
+                    return Token.BOOL;
+                }
+                return null;
+            case 5:
+                if (matches("false")) {
+                    currentBool = false;
+                    return Token.BOOL;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private boolean matches(String keyword) {
+        for (int i = 0; i < keyword.length(); i++) {
+            if (input.charAt(idStart + i) != keyword.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c1 = input.charAt(i);
+            if (c1 != '\\') {
+                sb.append(c1);
+                continue;
+            }
+            char c2 = input.charAt(++i);
+            if (c2 != '\"')
+                sb.append(c1);
+            sb.append(c2);
+        }
+        return sb.toString();
+    }
+
     private boolean isValidIdStartCharacter(char c) {
         return Character.isLetter(c) || c == '$';
     }
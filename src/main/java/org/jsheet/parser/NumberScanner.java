@@ -0,0 +1,116 @@
+package org.jsheet.parser;
+
+/**
+ * Number grammar shared by {@link Lexer} and literal parsing in {@link ParserUtils}:
+ * <pre>
+ *     number   ::= digits [ '.' [ digits ] ] [ exponent ]
+ *                | '.' digits [ exponent ]
+ *     exponent ::= ( 'e' | 'E' ) [ '+' | '-' ] digits
+ * </pre>
+ * Scanning never throws. Numbers which fit into a {@code long} with at most
+ * 15 significant digits and a small decimal exponent are converted exactly
+ * with a single multiplication or division, since both operands are exactly
+ * representable doubles. Other numbers are left to {@link Double#parseDouble(String)}.
+ */
+class NumberScanner {
+    // Doubles represent every integer up to 10^15 and powers of ten up to 10^22 exactly
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    private NumberScanner() {
+    }
+
+    /**
+     * @return the end of the longest number starting at {@code from}
+     * or {@code from} if there is none.
+     */
+    static int scan(CharSequence s, int from, int to) {
+        int i = skipDigits(s, from, to);
+        boolean hasDigits = i > from;
+        if (i < to && s.charAt(i) == '.') {
+            int fractionEnd = skipDigits(s, i + 1, to);
+            hasDigits |= fractionEnd > i + 1;
+            i = fractionEnd;
+        }
+        if (!hasDigits)
+            return from;
+        if (i < to && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (exponent < to && (s.charAt(exponent) == '+' || s.charAt(exponent) == '-'))
+                exponent++;
+            int exponentEnd = skipDigits(s, exponent, to);
+            // Otherwise the 'e' belongs to whatever follows the number
+            if (exponentEnd > exponent)
+                i = exponentEnd;
+        }
+        return i;
+    }
+
+    /**
+     * @return a value of the number between {@code from} and {@code to}
+     * which must have been matched by {@link #scan(CharSequence, int, int)}.
+     */
+    static double parse(CharSequence s, int from, int to) {
+        long significand = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        int i = from;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9')
+                break;
+            if (significand == 0 && c == '0') {
+                // Leading zeros are not significant
+                if (fraction)
+                    exponent--;
+                continue;
+            }
+            if (++digits > MAX_FAST_DIGITS)
+                return slowParse(s, from, to);
+            significand = 10 * significand + (c - '0');
+            if (fraction)
+                exponent--;
+        }
+        if (i < to) {
+            // Exponent, digits are bounded to avoid overflow
+            i++;
+            boolean negative = s.charAt(i) == '-';
+            if (s.charAt(i) == '+' || s.charAt(i) == '-')
+                i++;
+            int value = 0;
+            for (; i < to; i++) {
+                if (value > POWERS_OF_TEN.length + MAX_FAST_DIGITS)
+                    return slowParse(s, from, to);
+                value = 10 * value + (s.charAt(i) - '0');
+            }
+            exponent += negative ? -value : value;
+        }
+        if (significand == 0)
+            return 0;
+        if (0 <= exponent && exponent < POWERS_OF_TEN.length)
+            return significand * POWERS_OF_TEN[exponent];
+        if (-POWERS_OF_TEN.length < exponent && exponent < 0)
+            return significand / POWERS_OF_TEN[-exponent];
+        return slowParse(s, from, to);
+    }
+
+    private static double slowParse(CharSequence s, int from, int to) {
+        return Double.parseDouble(s.subSequence(from, to).toString());
+    }
+
+    private static int skipDigits(CharSequence s, int from, int to) {
+        int i = from;
+        while (i < to && '0' <= s.charAt(i) && s.charAt(i) <= '9')
+            i++;
+        return i;
+    }
+}
@@ -41,7 +41,7 @@ public class Parser {
     private Expression or(boolean read) throws ParseException {
         Expression expr = and(read);
         while (current == OR) {
-            String op = current.binop();
+            Operator op = current.binop();
             Expression term = and(false);
             expr = new Binop(op, expr, term);
         }
@@ -55,7 +55,7 @@ public class Parser {
     private Expression and(boolean read) throws ParseException {
         Expression expr = comparison(read);
         while (current == AND) {
-            String op = current.binop();
+            Operator op = current.binop();
             Expression term = comparison(false);
             expr = new Binop(op, expr, term);
         }
@@ -71,7 +71,7 @@ public class Parser {
         while (current == EQ || current == NE || current == LT
             || current == LE || current == GT || current == GE)
         {
-            String op = current.binop();
+            Operator op = current.binop();
             Expression term = sum(false);
             expr = new Binop(op, expr, term);
         }
@@ -85,7 +85,7 @@ public class Parser {
     private Expression sum(boolean read) throws ParseException {
         Expression expr = product(read);
         while (current == PLUS || current == MINUS) {
-            String op = current.binop();
+            Operator op = current.binop();
             Expression term = product(false);
             expr = new Binop(op, expr, term);
         }
@@ -99,7 +99,7 @@ public class Parser {
     private Expression product(boolean read) throws ParseException  {
         Expression expr = factor(read);
         while (current == MUL || current == DIV) {
-            String op = current.binop();
+            Operator op = current.binop();
             Expression term = factor(false);
             expr = new Binop(op, expr, term);
         }
@@ -124,13 +124,17 @@ public class Parser {
             case STR: return literal(lexer.currentString());
             case ID: {
                 String name = lexer.currentId();
+                // Only identifiers which look like cell references are decoded
+                Reference decoded = lexer.isCurrentReference()
+                    ? lexer.currentReference(references.size())
+                    : null;
                 readNextToken();
                 if (current == COLON) {
-                    return range(name);
+                    return range(reference(name, decoded));
                 } else if (current == LPAREN) {
                     return function(name);
                 } else {
-                    return reference(name);
+                    return reference(name, decoded);
                 }
             }
             case IF: return conditional();
@@ -160,14 +164,14 @@ public class Parser {
         return new StringLiteral(value);
     }
 
-    private Expression range(String firstName) throws ParseException {
+    private Expression range(Reference first) throws ParseException {
         readNextToken();
         if (current != ID)
             throw new ParseException();
-        Reference first = new Reference(firstName);
-        Reference last = new Reference(lexer.currentId());
+        Reference last = lexer.isCurrentReference()
+            ? lexer.currentReference(references.size())
+            : new Reference(lexer.currentId(), references.size());
         Range range = new Range(first, last);
-        references.add(first);
         references.add(last);
         ranges.add(range);
         readNextToken();
@@ -193,8 +197,11 @@ public class Parser {
         return new Function(name, args);
     }
 
-    private Expression reference(String name) {
-        Reference ref = new Reference(name);
+    /**
+     * @param decoded is the reference decoded by the lexer or {@code null}.
+     */
+    private Reference reference(String name, Reference decoded) {
+        Reference ref = decoded != null ? decoded : new Reference(name, references.size());
         references.add(ref);
         return ref;
     }
@@ -1,10 +1,14 @@
 package org.jsheet.parser;
 
 import org.jsheet.data.Formula;
+import org.jsheet.data.FormulaTemplate;
 import org.jsheet.expression.Expression;
+import org.jsheet.evaluation.Type;
 import org.jsheet.evaluation.Value;
 
 public class ParserUtils {
+    private static final FormulaCache FORMULA_CACHE = new FormulaCache(FormulaCache.DEFAULT_CAPACITY);
+
     public static Value parseValue(String strValue) throws ParseException {
         if (strValue.startsWith("=")) {
             Formula formula = parseFormula(strValue);
@@ -14,25 +18,95 @@ public class ParserUtils {
         }
     }
 
+    /**
+     * Parses a formula, or takes the parsed definition from
+     * {@link #getFormulaCache()} if it has been parsed recently.
+     */
     public static Formula parseFormula(String definition) throws ParseException {
+        return FORMULA_CACHE.parse(definition);
+    }
+
+    public static FormulaCache getFormulaCache() {
+        return FORMULA_CACHE;
+    }
+
+    static FormulaTemplate parseTemplate(String definition) throws ParseException {
         String formula = definition.substring(1); // truncate '='
         Lexer lexer = new Lexer(formula);
         Parser parser = new Parser(lexer);
         Expression expr = parser.parse();
-        return new Formula(definition, expr, parser.getReferences(), parser.getRanges());
+        return new FormulaTemplate(definition, expr, parser.getReferences(), parser.getRanges());
+    }
+
+    /**
+     * Same as {@link #parseValue(String)}, but takes a {@code hint} at the
+     * type of the value. A {@link Type#STRING} hint makes anything but
+     * a formula a string. A {@link Type#DOUBLE} or {@link Type#BOOLEAN} hint
+     * only makes the guess faster, a value which is not of the type is
+     * parsed as usual. {@code null} means no hint.
+     */
+    public static Value parseValue(String strValue, Type hint) throws ParseException {
+        if (strValue.startsWith("="))
+            return parseValue(strValue);
+        if (hint == Type.STRING)
+            return Value.of(strValue);
+        if (hint == Type.DOUBLE) {
+            Value number = parseNumber(strValue);
+            if (number != null)
+                return number;
+        }
+        return parseLiteral(strValue);
     }
 
     private static Value parseLiteral(String strValue) {
         // Boolean
-        if (Lexer.BOOL_LITERALS.containsKey(strValue))
-            return Value.of(Lexer.BOOL_LITERALS.get(strValue));
+        Boolean b = Lexer.BOOL_LITERALS.get(strValue);
+        if (b != null)
+            return Value.of(b);
 
         // Number
-        try {
-            return Value.of(Double.parseDouble(strValue));
-        } catch (NumberFormatException ignored) {}
+        Value number = parseNumber(strValue);
+        if (number != null)
+            return number;
 
         // String
         return Value.of(strValue);
     }
+
+    /**
+     * Accepts everything {@link Double#parseDouble(String)} does except for
+     * hexadecimal numbers, but returns {@code null} instead of throwing
+     * on anything else.
+     */
+    private static Value parseNumber(String s) {
+        // Leading and trailing whitespace is ignored just as by Double.parseDouble()
+        int from = 0;
+        int to = s.length();
+        while (from < to && s.charAt(from) <= ' ')
+            from++;
+        while (to > from && s.charAt(to - 1) <= ' ')
+            to--;
+        if (from == to)
+            return null;
+
+        boolean negative = s.charAt(from) == '-';
+        if (s.charAt(from) == '+' || s.charAt(from) == '-')
+            from++;
+        if (s.startsWith("NaN", from) && from + 3 == to)
+            return Value.of(Double.NaN);
+        if (s.startsWith("Infinity", from) && from + 8 == to)
+            return Value.of(negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+
+        int end = NumberScanner.scan(s, from, to);
+        if (end == from)
+            return null;
+        int numberEnd = end;
+        // Type suffixes are ignored as well
+        if (end < to && "fFdD".indexOf(s.charAt(end)) >= 0)
+            end++;
+        if (end != to)
+            return null;
+        double value = NumberScanner.parse(s, from, numberEnd);
+        return Value.of(negative ? -value : value);
+    }
 }
@@ -0,0 +1,45 @@
+package org.jsheet;
+
+import org.jsheet.data.A1Notation;
+import org.jsheet.data.JSheetTableModel;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class A1NotationTest {
+    @Test
+    public void columnNames() {
+        AbstractTableModel reference = new DefaultTableModel(0, JSheetTableModel.MAX_COLUMN_COUNT + 10);
+        for (int column = 0; column < reference.getColumnCount(); column++) {
+            String name = reference.getColumnName(column);
+            assertEquals(name, A1Notation.columnName(column));
+            assertEquals(column, A1Notation.decodeColumn(name));
+        }
+        assertSame(A1Notation.columnName(42), A1Notation.columnName(42));
+        assertEquals(-1, A1Notation.decodeColumn(""));
+        assertEquals(-1, A1Notation.decodeColumn("a"));
+    }
+
+    @Test
+    public void decode() {
+        long decoded = A1Notation.decode("$AB$12");
+        assertEquals(12, A1Notation.row(decoded));
+        assertEquals(27, A1Notation.column(decoded));
+        assertTrue(A1Notation.isRowAbsolute(decoded));
+        assertTrue(A1Notation.isColumnAbsolute(decoded));
+
+        decoded = A1Notation.decode("XFD1048575");
+        assertEquals(1048575, A1Notation.row(decoded));
+        assertEquals(JSheetTableModel.MAX_COLUMN_COUNT - 1, A1Notation.column(decoded));
+        assertFalse(A1Notation.isRowAbsolute(decoded));
+        assertFalse(A1Notation.isColumnAbsolute(decoded));
+
+        for (String name : new String[] { "", "A", "1", "a1", "A1$", "$$A1", "A$$1", "A1B", "AAAAAAAAAA1" }) {
+            assertEquals(A1Notation.INVALID, A1Notation.decode(name), name);
+        }
+        assertEquals("$B7", A1Notation.name(7, 1, false, true));
+    }
+}
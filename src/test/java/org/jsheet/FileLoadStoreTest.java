@@ -2,17 +2,27 @@ package org.jsheet;
 
 import com.opencsv.exceptions.CsvValidationException;
 import org.jsheet.data.Cell;
+import org.jsheet.data.CsvImporter;
+import org.jsheet.data.Formula;
 import org.jsheet.data.JSheetTableModel;
 import org.jsheet.evaluation.Result;
+import org.jsheet.evaluation.Value;
+import org.jsheet.expression.Reference;
 import org.jsheet.parser.ParseException;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class FileLoadStoreTest {
     static JSheetTableModel model;
@@ -53,4 +63,217 @@ public class FileLoadStoreTest {
             }
         }
     }
+
+    @Test
+    void fileStoreDeclaredSize() throws IOException, CsvValidationException, ParseException {
+        File file = File.createTempFile("test", ".csv");
+        file.deleteOnExit();
+
+        JSheetTableModel sparse = new JSheetTableModel(
+            JSheetTableModel.CSV_FULL_ROW_COUNT, JSheetTableModel.CSV_FULL_COLUMN_COUNT);
+        TestUtils.setValue(sparse, "1", 1, 1);
+        TestUtils.setValue(sparse, "=L12 + B1", 2, 2);
+        JSheetTableModel.write(file, sparse);
+        JSheetTableModel read = JSheetTableModel.read(file);
+        assertEquals(sparse.getRowCount(), read.getRowCount());
+        assertEquals(sparse.getColumnCount(), read.getColumnCount());
+        assertEquals(sparse.getResultAt(new Cell(2, 2)), read.getResultAt(new Cell(2, 2)));
+
+        JSheetTableModel.write(file, new JSheetTableModel(10, 10));
+        read = JSheetTableModel.read(file);
+        assertEquals(10, read.getRowCount());
+        assertEquals(10, read.getColumnCount());
+    }
+
+    @Test
+    void fileStoreUsedPartOfLargeSheet() throws IOException, CsvValidationException, ParseException {
+        File file = File.createTempFile("test", ".csv");
+        file.deleteOnExit();
+
+        JSheetTableModel large = new JSheetTableModel(100_000, 1000);
+        TestUtils.setValue(large, "1", 1, 1);
+        TestUtils.setValue(large, "=B1 + A1500", 2, 2);
+        JSheetTableModel.write(file, large);
+
+        // Up to A1500 which is referenced but empty, and no less than a full sheet
+        JSheetTableModel read = JSheetTableModel.read(file);
+        assertEquals(1501, read.getRowCount());
+        assertEquals(JSheetTableModel.CSV_FULL_COLUMN_COUNT, read.getColumnCount());
+        assertEquals(large.getResultAt(new Cell(2, 2)), read.getResultAt(new Cell(2, 2)));
+    }
+
+    @Test
+    void fileLoadDependencies() throws IOException, CsvValidationException, ParseException {
+        File file = File.createTempFile("test", ".csv");
+        file.deleteOnExit();
+
+        int rowCount = 5000;
+        try (var writer = new PrintWriter(new FileWriter(file))) {
+            for (int row = 0; row < rowCount; row++) {
+                // Every row references the next one, plus a cycle in the first row
+                String next = row + 1 < rowCount ? "=A" + (row + 1) + "+1" : "0";
+                String cycle = row == 0 ? "=C0,=B0,=B0+1" : ",,";
+                writer.println(next + "," + cycle + ",,,,,,");
+            }
+        }
+        JSheetTableModel read = JSheetTableModel.read(file);
+
+        for (int row = 0; row < rowCount; row++) {
+            Result result = read.getResultAt(new Cell(row, 0));
+            assertEquals(rowCount - 1 - row, result.get().getAsDouble(), 0);
+        }
+        for (int column = 1; column <= 3; column++) {
+            assertEquals("Circular dependency", read.getResultAt(new Cell(0, column)).message());
+        }
+    }
+
+    @Test
+    void parallelImport() throws IOException, CsvValidationException, ParseException {
+        File file = File.createTempFile("test", ".csv");
+        file.deleteOnExit();
+
+        int rowCount = 3 * CsvImporter.CHUNK_SIZE + 1;
+        try (var writer = new PrintWriter(new FileWriter(file))) {
+            for (int row = 0; row < rowCount; row++) {
+                writer.println(row + ",=A" + row + "*2,abc,true,,,,,,");
+            }
+        }
+        CsvImporter importer = new CsvImporter(file, 4);
+        List<Integer> progress = new ArrayList<>();
+        importer.setProgressListener(progress::add);
+        JSheetTableModel read = importer.importModel();
+
+        assertEquals(rowCount, read.getRowCount());
+        for (int row = 0; row < rowCount; row++) {
+            assertEquals(2 * row, read.getResultAt(new Cell(row, 1)).get().getAsDouble(), 0);
+        }
+        // Reading the four chunks, evaluation and the end
+        assertTrue(progress.size() > 5);
+        for (int i = 0; i < 4; i++)
+            assertTrue(progress.get(i) <= 100 - CsvImporter.EVALUATION_PROGRESS);
+        for (int i = 1; i < progress.size(); i++)
+            assertTrue(progress.get(i - 1) <= progress.get(i));
+        assertEquals(100, progress.get(progress.size() - 1));
+        assertEquals(1, progress.stream().filter(p -> p == 100).count());
+
+        CsvImporter cancelled = new CsvImporter(file, 4);
+        cancelled.cancel();
+        assertThrows(CancellationException.class, cancelled::importModel);
+
+        // Cancelled while formulae are evaluated
+        CsvImporter evaluating = new CsvImporter(file, 4);
+        evaluating.setProgressListener(p -> {
+            if (p > 100 - CsvImporter.EVALUATION_PROGRESS)
+                evaluating.cancel();
+        });
+        assertThrows(CancellationException.class, evaluating::importModel);
+    }
+
+    @Test
+    void importParseError() throws IOException {
+        File file = File.createTempFile("test", ".csv");
+        file.deleteOnExit();
+
+        try (var writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("1,=A0+,,,,,,,,");
+        }
+        assertThrows(ParseException.class, () -> JSheetTableModel.read(file));
+    }
+
+    @Test
+    void binaryLoadStore() throws IOException, ParseException {
+        File file = File.createTempFile("test", ".jsb");
+        file.deleteOnExit();
+
+        TestUtils.setValue(model, "= sum($A$0:E0) + if C3 > 4 then 1 else length(\"abc\")", 4, 0);
+        TestUtils.setValue(model, "= A4 == 18 && true", 4, 1);
+        TestUtils.setValue(model, "= D4", 4, 2);
+        TestUtils.setValue(model, "= C4", 4, 3);
+        // A shifted copy of "= C4"
+        model.setValueAt(Value.of(model.getValueAt(4, 3).getAsFormula().shift(model, 1, 0)), 5, 3);
+        try {
+            JSheetTableModel.writeBinary(file, model);
+            JSheetTableModel read = JSheetTableModel.readBinary(file);
+
+            assertEquals(model.getColumnCount(), read.getColumnCount());
+            assertEquals(model.getRowCount(), read.getRowCount());
+            for (int row = 0; row < read.getRowCount(); row++) {
+                for (int column = 0; column < read.getColumnCount(); column++) {
+                    Value expected = model.getValueAt(row, column);
+                    Value actual = read.getValueAt(row, column);
+                    assertEquals(String.valueOf(expected), String.valueOf(actual));
+                    Cell cell = new Cell(row, column);
+                    assertEquals(model.getResultAt(cell), read.getResultAt(cell));
+                }
+            }
+            assertEquals(true, read.getResultAt(new Cell(4, 1)).get().getAsBoolean());
+            assertEquals("Circular dependency", read.getResultAt(new Cell(4, 2)).message());
+            assertEquals("= C5", read.getValueAt(5, 3).getAsFormula().getDefinition());
+            // References are restored from the stored cells
+            Formula sum = read.getValueAt(4, 0).getAsFormula();
+            Reference absolute = sum.getReferences().get(0);
+            assertTrue(absolute.isRowAbsolute() && absolute.isColumnAbsolute());
+            assertEquals(new Cell(0, 0), sum.getCell(absolute));
+            assertEquals(new Cell(0, 4), sum.getCell(sum.getReferences().get(1)));
+
+            // Dependencies are restored as well
+            TestUtils.setValue(read, "5", 0, 0);
+            assertEquals(20, read.getResultAt(new Cell(4, 0)).get().getAsDouble(), 0);
+            assertEquals(false, read.getResultAt(new Cell(4, 1)).get().getAsBoolean());
+        } finally {
+            for (int column = 0; column < 4; column++)
+                model.setValueAt(null, 4, column);
+            model.setValueAt(null, 5, 3);
+        }
+    }
+
+    @Test
+    void binarySharedTemplates() throws IOException, ParseException {
+        File file = File.createTempFile("test", ".jsb");
+        file.deleteOnExit();
+
+        JSheetTableModel filled = new JSheetTableModel(100, 10);
+        TestUtils.setValue(filled, "= A0 * 2 + $A$0", 0, 1);
+        Formula original = filled.getValueAt(0, 1).getAsFormula();
+        for (int row = 0; row < 100; row++) {
+            TestUtils.setValue(filled, Integer.toString(row), row, 0);
+            if (row > 0)
+                filled.setValueAt(Value.of(original.shift(filled, row, 0)), row, 1);
+        }
+        JSheetTableModel.writeBinary(file, filled);
+        JSheetTableModel read = JSheetTableModel.readBinary(file);
+
+        Formula first = read.getValueAt(0, 1).getAsFormula();
+        for (int row = 0; row < 100; row++) {
+            Formula formula = read.getValueAt(row, 1).getAsFormula();
+            assertSame(first.getTemplate(), formula.getTemplate());
+            assertEquals(filled.getValueAt(row, 1).getAsFormula().getDefinition(),
+                formula.getDefinition());
+            assertEquals(2 * row, read.getResultAt(new Cell(row, 1)).get().getAsDouble(), 0);
+        }
+        TestUtils.setValue(read, "1", 0, 0);
+        assertEquals(2 * 99 + 1, read.getResultAt(new Cell(99, 1)).get().getAsDouble(), 0);
+    }
+
+    @Test
+    void binaryCorruptedCounts() throws IOException {
+        File file = File.createTempFile("test", ".jsb");
+        file.deleteOnExit();
+        JSheetTableModel.writeBinary(file, model);
+        byte[] original = Files.readAllBytes(file.toPath());
+        int dictionaryOffset = (int) ByteBuffer.wrap(original).getLong(16);
+        // The count of the first column and the size of the dictionary
+        for (int offset : new int[] { 24, dictionaryOffset }) {
+            for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+                byte[] corrupted = original.clone();
+                ByteBuffer.wrap(corrupted).putInt(offset, count);
+                Files.write(file.toPath(), corrupted);
+                assertThrows(IOException.class, () -> JSheetTableModel.readBinary(file));
+            }
+        }
+        // The file is not held open after reading
+        Files.write(file.toPath(), original);
+        JSheetTableModel.readBinary(file);
+        JSheetTableModel.writeBinary(file, model);
+    }
 }
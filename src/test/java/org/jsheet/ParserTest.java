@@ -1,16 +1,25 @@
 package org.jsheet;
 
+import org.jsheet.data.Cell;
+import org.jsheet.data.Formula;
+import org.jsheet.data.JSheetTableModel;
+import org.jsheet.evaluation.Type;
+import org.jsheet.evaluation.Value;
 import org.jsheet.expression.*;
+import org.jsheet.parser.FormulaCache;
 import org.jsheet.parser.Lexer;
 import org.jsheet.parser.ParseException;
 import org.jsheet.parser.Parser;
+import org.jsheet.parser.ParserUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class ParserTest {
     private void testParserImpl(String input, Expression expected) {
@@ -54,6 +63,50 @@ public class ParserTest {
         testParserImpl("-42", lit(-42));
         testParserImpl("-42.1", lit(-42.1));
         testParserImpl("-.1", lit(-.1));
+        testParserImpl("1.5E3", lit(1500));
+        testParserImpl("1e-3", lit(0.001));
+        testParserImpl("123456789.123456789", lit(123456789.123456789));
+    }
+
+    @Test
+    public void plainLiterals() throws ParseException {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong());
+            String s = Double.toString(d);
+            assertEquals(Value.of(Double.parseDouble(s)), ParserUtils.parseValue(s));
+            s = Double.toString(random.nextInt(1000000) / 100.0);
+            assertEquals(Value.of(Double.parseDouble(s)), ParserUtils.parseValue(s));
+        }
+        for (String s : List.of("0", "-0.0", " 42 ", "+1.", "1e22", "1e23", "2.5d", "-Infinity", "NaN")) {
+            assertEquals(Value.of(Double.parseDouble(s)), ParserUtils.parseValue(s));
+        }
+        for (String s : List.of("", " ", ".", "-", "1e", "e5", "1.2.3", "42abc", "1,5", "Inf")) {
+            assertEquals(Value.of(s), ParserUtils.parseValue(s));
+        }
+        assertEquals(Value.of(true), ParserUtils.parseValue("true"));
+    }
+
+    @Test
+    public void sharedValues() throws ParseException {
+        assertSame(Value.ZERO, ParserUtils.parseValue("0"));
+        assertSame(Value.ONE, ParserUtils.parseValue("1.0"));
+        assertSame(Value.TRUE, ParserUtils.parseValue("true"));
+        assertSame(Value.EMPTY_STRING, ParserUtils.parseValue(""));
+        assertSame(Value.of(42), Value.of(42.0));
+        Value negativeZero = ParserUtils.parseValue("-0.0");
+        assertNotEquals(Value.ZERO, negativeZero);
+        assertEquals(-0.0, negativeZero.getAsDouble());
+        assertEquals(Value.of(0.5), Value.of(0.5));
+    }
+
+    @Test
+    public void plainLiteralsWithHint() throws ParseException {
+        assertEquals(Value.of(42.0), ParserUtils.parseValue("42", Type.DOUBLE));
+        assertEquals(Value.of("abc"), ParserUtils.parseValue("abc", Type.DOUBLE));
+        assertEquals(Value.of(true), ParserUtils.parseValue("true", Type.DOUBLE));
+        assertEquals(Value.of("42"), ParserUtils.parseValue("42", Type.STRING));
+        assertEquals(Type.FORMULA, ParserUtils.parseValue("= 42", Type.STRING).getTag());
     }
 
     @Test
@@ -100,6 +153,23 @@ public class ParserTest {
         testParserImpl("1 == 2 || 1 + 1 == 1 + 1 && 42 / 2 > 20", expected);
     }
 
+    @Test
+    public void operators() throws ParseException {
+        for (Operator op : Operator.values()) {
+            assertSame(op, Operator.of(op.getSymbol()));
+            Binop binop = (Binop) new Parser(new Lexer("1 " + op.getSymbol() + " 2")).parse();
+            assertSame(op, binop.getOp());
+        }
+        assertThrows(IllegalArgumentException.class, () -> Operator.of("%"));
+        assertEquals(-1, Operator.SUBTRACT.apply(1, 2));
+        assertEquals(0.5, Operator.DIVIDE.apply(1, 2));
+        assertTrue(Operator.OR.getDecisive());
+        assertFalse(Operator.AND.getDecisive());
+        assertTrue(Operator.LE.compare(2, 2));
+        assertFalse(Operator.EQ.compare(0.0, -0.0));
+        assertTrue(Operator.NE.compare(0.0, -0.0));
+    }
+
     @Test
     public void functionWithNoArgs() {
         Expression expected = new Function("rand", Collections.emptyList());
@@ -129,6 +199,54 @@ public class ParserTest {
         testParserImpl("sum(A1:A10)", expected);
     }
 
+    @Test
+    public void decodedReferences() throws ParseException {
+        Lexer lexer = new Lexer("$AB$12");
+        assertEquals(Lexer.Token.ID, lexer.next());
+        Reference ref = lexer.currentReference(0);
+        assertEquals("$AB$12", ref.getName());
+        assertTrue(ref.isRowAbsolute());
+        assertTrue(ref.isColumnAbsolute());
+        JSheetTableModel model = new JSheetTableModel(100, 100);
+        assertEquals(new Cell(12, 27), ref.resolve(model));
+
+        Parser parser = new Parser(new Lexer("$AB$12 + B7 * A$0 + foo + sum(a1) + sum(B1:C200)"));
+        parser.parse();
+        List<Reference> references = parser.getReferences();
+        assertEquals(List.of("$AB$12", "B7", "A$0", "foo", "a1", "B1", "C200"),
+            references.stream().map(Reference::getName).collect(Collectors.toList()));
+        for (int i = 0; i < references.size(); i++)
+            assertEquals(i, references.get(i).getIndex());
+        assertEquals(new Cell(7, 1), references.get(1).resolve(model));
+        assertEquals(new Cell(0, 0), references.get(2).resolve(model));
+        assertTrue(references.get(2).isRowAbsolute());
+        assertFalse(references.get(2).isColumnAbsolute());
+        assertNull(references.get(3).resolve(model));
+        assertNull(references.get(4).resolve(model));
+        assertEquals(new Cell(1, 1), references.get(5).resolve(model));
+        // Out of bounds
+        assertNull(references.get(6).resolve(model));
+    }
+
+    @Test
+    public void formulaCache() throws ParseException {
+        FormulaCache cache = new FormulaCache(2);
+        Formula first = cache.parse("=A1 + B1");
+        Formula second = cache.parse("=A1 + B1");
+        assertNotSame(first, second);
+        assertSame(first.getTemplate(), second.getTemplate());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.parse("=A2");
+        cache.parse("=A3"); // Evicts "=A1 + B1"
+        assertEquals(2, cache.size());
+        assertNotSame(first.getTemplate(), cache.parse("=A1 + B1").getTemplate());
+        assertEquals(4, cache.getMissCount());
+
+        assertThrows(ParseException.class, () -> cache.parse("=A1 +"));
+    }
+
     @Test
     public void conditional() {
         Expression expected = new Conditional(lit(true), lit(42), lit(43));
@@ -1,5 +1,7 @@
 package org.jsheet;
 
+import org.jsheet.data.Cell;
+import org.jsheet.data.Formula;
 import org.jsheet.data.JSheetTableModel;
 import org.jsheet.evaluation.Result;
 import org.jsheet.evaluation.Type;
@@ -7,6 +9,16 @@ import org.jsheet.evaluation.Value;
 import org.jsheet.parser.ParseException;
 import org.junit.jupiter.api.*;
 
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 // TODO write more clear tests?
@@ -41,6 +53,41 @@ public class TableModelTest {
             assertEquals(Double.parseDouble(dVal), model.getValueAt(0, 0).getAsDouble());
             assertEquals(strVal, model.getValueAt(0, 1).getAsString());
         }
+
+        @Test
+        void overwriteWithAnotherType() throws ParseException {
+            TestUtils.setValue(model, "true", 0, 0);
+            assertEquals(Value.of(true), model.getValueAt(0, 0));
+            TestUtils.setValue(model, "abc", 0, 0);
+            assertEquals(Value.of("abc"), model.getValueAt(0, 0));
+            TestUtils.setValue(model, "= 1 + 1", 0, 0);
+            assertSame(Type.FORMULA, model.getValueAt(0, 0).getTag());
+            TestUtils.setValue(model, "-1.5", 0, 0);
+            assertEquals(Value.of(-1.5), model.getValueAt(0, 0));
+            model.setValueAt(null, 0, 0);
+            assertNull(model.getValueAt(0, 0));
+            assertNull(model.getValueAt(0, 25));
+        }
+    }
+
+    @Nested
+    class LargeSheet {
+        @Test
+        void sparseReadWrite() throws ParseException {
+            JSheetTableModel large = new JSheetTableModel(
+                JSheetTableModel.MAX_ROW_COUNT, JSheetTableModel.MAX_COLUMN_COUNT);
+            int lastRow = large.getRowCount() - 1;
+            int lastColumn = large.getColumnCount() - 1;
+            TestUtils.setValue(large, "42", lastRow, lastColumn);
+            TestUtils.setValue(large, "= XFD1048575 + 1", 0, 0);
+            assertEquals(43, large.getValueAt(0, 0).getAsFormula().getResult().get().getAsDouble(), 0);
+            assertNull(large.getValueAt(lastRow, 0));
+            assertNull(large.getValueAt(0, lastColumn));
+            large.setValueAt(null, lastRow, lastColumn);
+            assertNull(large.getValueAt(lastRow, lastColumn));
+            assertEquals("Cell XFD1048575 is uninitialized",
+                large.getValueAt(0, 0).getAsFormula().getResult().message());
+        }
     }
 
     @Nested
@@ -100,6 +147,14 @@ public class TableModelTest {
         public void simple() throws ParseException {
             testBooleanValuedFormula("= 1 > 2 || 1 != 42", true);
         }
+
+        @Test
+        public void shortCircuit() throws ParseException {
+            testBooleanValuedFormula("= false && \"abc\"", false);
+            testBooleanValuedFormula("= true || \"abc\"", true);
+            TestUtils.setValue(model, "= true && \"abc\"", 0, 0);
+            checkErrorResult("Expected BOOLEAN and got STRING", 0, 0);
+        }
     }
 
     @Nested
@@ -188,6 +243,422 @@ public class TableModelTest {
             TestUtils.setValue(model, "=sum(C1:A0)", 2, 0);
             checkErrorResult("Incorrect range: C1:A0", 2, 0);
         }
+
+        @Test
+        public void rangeDependencies() throws ParseException {
+            TestUtils.setValue(model, "1", 0, 0);
+            TestUtils.setValue(model, "2", 1, 0);
+            TestUtils.setValue(model, "=sum(A0:A1)", 0, 1);
+            TestUtils.setValue(model, "=sum(A0:B1)", 0, 2);
+            checkSuccessDoubleResult(3, 0, 1);
+            checkErrorResult("Cell B1 is uninitialized", 0, 2);
+            TestUtils.setValue(model, "=sum(A0:A0) + 5", 1, 1);
+            checkSuccessDoubleResult(1 + 2 + 3 + 6, 0, 2);
+            TestUtils.setValue(model, "=sum(A0:A0) + B0", 1, 1);
+            checkSuccessDoubleResult(1 + 2 + 3 + 4, 0, 2);
+            TestUtils.setValue(model, "10", 1, 0);
+            checkSuccessDoubleResult(11, 0, 1);
+            checkSuccessDoubleResult(12, 1, 1);
+            checkSuccessDoubleResult(1 + 10 + 11 + 12, 0, 2);
+            // Ranges are no longer tracked once the formula is gone
+            TestUtils.setValue(model, "0", 0, 1);
+            TestUtils.setValue(model, "20", 1, 0);
+            checkPlainDouble(0, 0, 1);
+            checkSuccessDoubleResult(1, 1, 1);
+            checkSuccessDoubleResult(1 + 20 + 0 + 1, 0, 2);
+        }
+
+        @Test
+        void maintainedSum() throws ParseException {
+            JSheetTableModel large = new JSheetTableModel(500, 10);
+            for (int row = 0; row < 500; row++) {
+                TestUtils.setValue(large, Integer.toString(row), row, 0);
+                TestUtils.setValue(large, "= A" + row + " * 2", row, 1);
+            }
+            TestUtils.setValue(large, "= sum(A0:B499)", 0, 2);
+            TestUtils.setValue(large, "= sum(A0:B499) + 1", 1, 2);
+            double expected = 3 * 499 * 500 / 2;
+            Cell sum = new Cell(0, 2);
+            assertEquals(expected, large.getResultAt(sum).get().getAsDouble(), 0);
+            for (int row = 0; row < 500; row += 7) {
+                TestUtils.setValue(large, Integer.toString(row + 1), row, 0);
+                expected += 3;
+                assertEquals(expected, large.getResultAt(sum).get().getAsDouble(), 0);
+            }
+            assertEquals(expected + 1, large.getResultAt(new Cell(1, 2)).get().getAsDouble(), 0);
+            TestUtils.setValue(large, "\"x\"", 250, 0);
+            assertFalse(large.getResultAt(sum).isPresent());
+            TestUtils.setValue(large, "1", 250, 0);
+            assertEquals(expected - 3 * 250 + 3,
+                large.getResultAt(sum).get().getAsDouble(), 0);
+            // Still correct once one of the formulae is gone
+            TestUtils.setValue(large, "0", 1, 2);
+            TestUtils.setValue(large, "2", 250, 0);
+            assertEquals(expected - 3 * 250 + 6,
+                large.getResultAt(sum).get().getAsDouble(), 0);
+        }
+    }
+
+    @Nested
+    class Batches {
+        @Test
+        void evaluatedOnCommit() throws ParseException {
+            TestUtils.setValue(model, "1", 0, 0);
+            TestUtils.setValue(model, "= A0 + 1", 0, 1);
+            TestUtils.setValue(model, "= sum(A0:B0)", 0, 2);
+            List<TableModelEvent> events = new ArrayList<>();
+            TableModelListener listener = events::add;
+            model.addTableModelListener(listener);
+            try {
+                model.beginBatch();
+                TestUtils.setValue(model, "2", 0, 0);
+                TestUtils.setValue(model, "= A0 * 10", 0, 1);
+                assertTrue(events.isEmpty());
+                checkSuccessDoubleResult(1 + 2, 0, 2);
+                model.commitBatch();
+            } finally {
+                model.removeTableModelListener(listener);
+            }
+            checkSuccessDoubleResult(20, 0, 1);
+            checkSuccessDoubleResult(2 + 20, 0, 2);
+            assertEquals(1, events.size());
+            assertEquals(0, events.get(0).getFirstRow());
+            assertEquals(0, events.get(0).getLastRow());
+        }
+
+        @Test
+        void singleEventPerRecalculation() throws ParseException {
+            JSheetTableModel model = new JSheetTableModel(1000, 10);
+            TestUtils.setValue(model, "1", 0, 0);
+            for (int row = 1; row < 1000; row++)
+                TestUtils.setValue(model, "= A" + (row - 1) + " + 1", row, 0);
+            List<TableModelEvent> events = new ArrayList<>();
+            model.addTableModelListener(events::add);
+            TestUtils.setValue(model, "2", 0, 0);
+            assertEquals(1, events.size());
+            TableModelEvent event = events.get(0);
+            assertEquals(0, event.getFirstRow());
+            assertEquals(999, event.getLastRow());
+            assertEquals(0, event.getColumn());
+
+            events.clear();
+            TestUtils.setValue(model, "= A999", 5, 3);
+            assertEquals(1, events.size());
+            assertEquals(5, events.get(0).getFirstRow());
+            assertEquals(3, events.get(0).getColumn());
+        }
+
+        @Test
+        void commitWithoutBegin() {
+            assertThrows(IllegalStateException.class, () -> model.commitBatch());
+        }
+    }
+
+    @Nested
+    class ParallelRecalculation {
+        @Test
+        void sameResultsAsSerial() throws ParseException {
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try {
+                JSheetTableModel parallel = new JSheetTableModel(1000, 10);
+                parallel.setRecalculationPool(pool);
+                parallel.beginBatch();
+                for (int row = 0; row < 1000; row++) {
+                    TestUtils.setValue(parallel, Integer.toString(row), row, 0);
+                    TestUtils.setValue(parallel, "= A" + row + " * 2", row, 1);
+                    TestUtils.setValue(parallel, "= B" + row + " + A" + row, row, 2);
+                }
+                TestUtils.setValue(parallel, "= sum(C0:C999)", 0, 3);
+                TestUtils.setValue(parallel, "= E1", 0, 4);
+                TestUtils.setValue(parallel, "= E0", 1, 4);
+                TestUtils.setValue(parallel, "= E0 + D0", 2, 4);
+                parallel.commitBatch();
+                for (int row = 0; row < 1000; row++) {
+                    Result result = parallel.getResultAt(new Cell(row, 2));
+                    assertEquals(3 * row, result.get().getAsDouble(), 0);
+                }
+                assertEquals(3 * 999 * 1000 / 2,
+                    parallel.getResultAt(new Cell(0, 3)).get().getAsDouble(), 0);
+                for (int row = 0; row < 3; row++) {
+                    assertEquals("Circular dependency",
+                        parallel.getResultAt(new Cell(row, 4)).message());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    class BackgroundRecalculation {
+        @Test
+        void editsDuringRecalculation() throws Exception {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                int rowCount = 10000;
+                JSheetTableModel background = new JSheetTableModel(rowCount, 10);
+                background.setRecalculationExecutor(executor);
+                TestUtils.setValue(background, "1", 0, 0);
+                for (int row = 1; row < rowCount; row++)
+                    TestUtils.setValue(background, "= A" + (row - 1) + " + 1", row, 0);
+                List<TableModelEvent> events = Collections.synchronizedList(new ArrayList<>());
+                background.addTableModelListener(events::add);
+                // Each edit cancels the re-evaluation of the previous one
+                for (int value = 2; value <= 10; value++)
+                    TestUtils.setValue(background, Integer.toString(value), 0, 0);
+                TestUtils.setValue(background, "= A0 * 2", 0, 1);
+                background.awaitRecalculation();
+                assertEquals(10 + rowCount - 1,
+                    background.getResultAt(new Cell(rowCount - 1, 0)).get().getAsDouble(), 0);
+                assertEquals(20, background.getResultAt(new Cell(0, 1)).get().getAsDouble(), 0);
+
+                // Updated cells are announced on the event dispatch thread
+                SwingUtilities.invokeAndWait(() -> { });
+                assertTrue(events.stream().anyMatch(e -> e.getLastRow() == rowCount - 1));
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        @Test
+        void discarded() throws Exception {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                int rowCount = 100000;
+                JSheetTableModel discarded = new JSheetTableModel(rowCount, 10);
+                TestUtils.setValue(discarded, "1", 0, 0);
+                for (int row = 1; row < rowCount; row++)
+                    TestUtils.setValue(discarded, "= A" + (row - 1) + " + 1", row, 0);
+                discarded.setRecalculationExecutor(executor);
+                TestUtils.setValue(discarded, "2", 0, 0);
+                discarded.discardRecalculation();
+
+                // The executor is free for the next model right away
+                JSheetTableModel next = new JSheetTableModel(10, 10);
+                next.setRecalculationExecutor(executor);
+                TestUtils.setValue(next, "1", 0, 0);
+                TestUtils.setValue(next, "= A0 + 1", 0, 1);
+                next.awaitRecalculation();
+                assertEquals(2, next.getResultAt(new Cell(0, 1)).get().getAsDouble(), 0);
+
+                // The discarded model re-evaluates on the calling thread from now on
+                TestUtils.setValue(discarded, "= 5", rowCount - 1, 1);
+                assertEquals(5, discarded.getValueAt(rowCount - 1, 1)
+                    .getAsFormula().getResult().get().getAsDouble(), 0);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    class LazyRecalculation {
+        JSheetTableModel lazy;
+
+        @BeforeEach
+        void setUpChain() throws ParseException {
+            lazy = new JSheetTableModel(1000, 10);
+            TestUtils.setValue(lazy, "1", 0, 0);
+            for (int row = 1; row < 1000; row++)
+                TestUtils.setValue(lazy, "= A" + (row - 1) + " + 1", row, 0);
+            TestUtils.setValue(lazy, "= sum(A0:A999)", 0, 1);
+            lazy.setLazyRecalculation(true);
+        }
+
+        private double storedResult(int row, int column) {
+            return lazy.getValueAt(row, column).getAsFormula().getResult().get().getAsDouble();
+        }
+
+        private double requestedResult(int row, int column) {
+            return lazy.getResultAt(new Cell(row, column)).get().getAsDouble();
+        }
+
+        @Test
+        void evaluatedOnDemand() throws ParseException {
+            TestUtils.setValue(lazy, "2", 0, 0);
+            assertEquals(1 + 500, storedResult(500, 0), 0);
+            assertEquals(2 + 500, requestedResult(500, 0), 0);
+            // Only what the requested formula depends on is evaluated
+            assertEquals(1 + 600, storedResult(600, 0), 0);
+            assertEquals(2 + 999, requestedResult(999, 0), 0);
+            assertEquals(1000 * 1001 / 2 + 1000, requestedResult(0, 1), 0);
+        }
+
+        @Test
+        void pinned() throws ParseException {
+            lazy.setPinned(new Cell(999, 0), true);
+            TestUtils.setValue(lazy, "2", 0, 0);
+            assertEquals(2 + 999, storedResult(999, 0), 0);
+            lazy.setPinned(new Cell(999, 0), false);
+            TestUtils.setValue(lazy, "3", 0, 0);
+            assertEquals(2 + 999, storedResult(999, 0), 0);
+        }
+
+        @Test
+        void evaluatedBeforeSaving() throws ParseException {
+            TestUtils.setValue(lazy, "2", 0, 0);
+            lazy.awaitRecalculation();
+            assertEquals(2 + 999, storedResult(999, 0), 0);
+            assertEquals(1000 * 1001 / 2 + 1000, storedResult(0, 1), 0);
+        }
+
+        @Test
+        void cycle() throws ParseException {
+            TestUtils.setValue(lazy, "= A999", 0, 0);
+            assertEquals("Circular dependency", lazy.getResultAt(new Cell(500, 0)).message());
+            TestUtils.setValue(lazy, "5", 0, 0);
+            assertEquals(5 + 500, requestedResult(500, 0), 0);
+        }
+    }
+
+    @Nested
+    class DynamicDependencies {
+        JSheetTableModel dynamic;
+        List<TableModelEvent> events = new ArrayList<>();
+
+        @BeforeEach
+        void setUpConditional() throws ParseException {
+            dynamic = new JSheetTableModel(10, 10);
+            dynamic.setDynamicDependencies(true);
+            TestUtils.setValue(dynamic, "true", 0, 0);
+            TestUtils.setValue(dynamic, "1", 0, 1);
+            TestUtils.setValue(dynamic, "2", 0, 2);
+            TestUtils.setValue(dynamic, "= if A0 then B0 else C0", 0, 3);
+            TestUtils.setValue(dynamic, "= A0 || C0 > 0", 0, 4);
+            dynamic.addTableModelListener(events::add);
+        }
+
+        private boolean reevaluated(int column) {
+            TableModelEvent event = events.get(events.size() - 1);
+            return event.getColumn() == TableModelEvent.ALL_COLUMNS || event.getColumn() == column;
+        }
+
+        @Test
+        void untakenBranch() throws ParseException {
+            TestUtils.setValue(dynamic, "3", 0, 2);
+            assertFalse(reevaluated(3));
+            TestUtils.setValue(dynamic, "4", 0, 1);
+            assertTrue(reevaluated(3));
+            assertEquals(4, dynamic.getResultAt(new Cell(0, 3)).get().getAsDouble(), 0);
+
+            // The other branch is read once taken
+            TestUtils.setValue(dynamic, "false", 0, 0);
+            assertEquals(3, dynamic.getResultAt(new Cell(0, 3)).get().getAsDouble(), 0);
+            TestUtils.setValue(dynamic, "5", 0, 2);
+            assertTrue(reevaluated(3));
+            assertEquals(5, dynamic.getResultAt(new Cell(0, 3)).get().getAsDouble(), 0);
+        }
+
+        @Test
+        void shortCircuit() throws ParseException {
+            TestUtils.setValue(dynamic, "-1", 0, 2);
+            assertFalse(reevaluated(4));
+            TestUtils.setValue(dynamic, "false", 0, 0);
+            assertFalse(dynamic.getResultAt(new Cell(0, 4)).get().getAsBoolean());
+            TestUtils.setValue(dynamic, "1", 0, 2);
+            assertTrue(dynamic.getResultAt(new Cell(0, 4)).get().getAsBoolean());
+        }
+
+        @Test
+        void switchedOff() throws ParseException {
+            dynamic.setDynamicDependencies(false);
+            TestUtils.setValue(dynamic, "3", 0, 2);
+            assertTrue(reevaluated(3));
+        }
+    }
+
+    @Nested
+    class SharedFormulae {
+        @Test
+        void fillDown() throws ParseException {
+            JSheetTableModel model = new JSheetTableModel(10, 10);
+            for (int row = 0; row < 10; row++)
+                TestUtils.setValue(model, Integer.toString(row), row, 0);
+            TestUtils.setValue(model, "=A0 * 2 + sum($A$0:A0)", 0, 1);
+            Formula original = model.getValueAt(0, 1).getAsFormula();
+            model.beginBatch();
+            for (int row = 1; row < 10; row++)
+                model.setValueAt(Value.of(original.shift(model, row, 0)), row, 1);
+            model.commitBatch();
+
+            double sum = 0;
+            for (int row = 0; row < 10; row++) {
+                sum += row;
+                Formula formula = model.getValueAt(row, 1).getAsFormula();
+                assertSame(original.getTemplate(), formula.getTemplate());
+                assertEquals(2 * row + sum, model.getResultAt(new Cell(row, 1)).get().getAsDouble());
+            }
+            assertEquals("= ((A7 * 2.0) + sum($A$0:A7))",
+                model.getValueAt(7, 1).getAsFormula().getDefinition());
+
+            // Dependencies follow the shift
+            TestUtils.setValue(model, "100", 7, 0);
+            assertEquals(200 + 21 + 100, model.getResultAt(new Cell(7, 1)).get().getAsDouble());
+            assertEquals(16 + 21 + 100 + 8, model.getResultAt(new Cell(8, 1)).get().getAsDouble());
+        }
+
+        @Test
+        void outOfBounds() throws ParseException {
+            JSheetTableModel model = new JSheetTableModel(10, 10);
+            TestUtils.setValue(model, "=A9 + $A$0", 0, 1);
+            Formula original = model.getValueAt(0, 1).getAsFormula();
+            Formula shifted = original.shift(model, 1, 0);
+            assertNotSame(original.getTemplate(), shifted.getTemplate());
+            assertEquals("= (REF + $A$0)", shifted.getDefinition());
+            model.setValueAt(Value.of(shifted), 1, 1);
+            assertEquals("Reference REF unresolved", model.getResultAt(new Cell(1, 1)).message());
+        }
+    }
+
+    @Nested
+    class Compilation {
+        @Test
+        void sameResultsAsInterpreted() throws ParseException {
+            String[] formulae = {
+                "= 1 + 2 * 3", "= A0 + 1", "= A0 * 2 - 1 / 4", "= A0 > 1 && true",
+                "= A0 || false", "= if A0 == 3 then pow(A0, 2) else -1",
+                "= if true then \"s\" else A0", "= length(A0)", "= sum(A0:A1)",
+                "= sum(A0)", "= pow(1)", "= foo(A0)", "= A0 != 3 == true",
+                "= A0 > 1 && A0 < 4", "= false && A0", "= A0 || A0 > 0",
+                "= \"s\" + A0", "= \"s\" < A0", "= pow(\"s\", A0)"
+            };
+            String[] inputs = { "3", "abc", "true", null, "-0.5" };
+            JSheetTableModel compiled = new JSheetTableModel(20, 10);
+            TestUtils.setValue(compiled, "1", 1, 0);
+            for (int row = 0; row < formulae.length; row++)
+                TestUtils.setValue(compiled, formulae[row], row, 1);
+            for (int i = 0; i < 4 * Formula.COMPILATION_THRESHOLD; i++) {
+                TestUtils.setValue(compiled, inputs[i % inputs.length], 0, 0);
+                for (int row = 0; row < formulae.length; row++) {
+                    // A fresh formula is always interpreted
+                    TestUtils.setValue(compiled, formulae[row], row, 2);
+                    assertEquals(
+                        compiled.getResultAt(new Cell(row, 2)),
+                        compiled.getResultAt(new Cell(row, 1)),
+                        formulae[row]);
+                }
+            }
+        }
+
+        @Test
+        void sharedByShiftedFormulae() throws ParseException {
+            JSheetTableModel model = new JSheetTableModel(10, 10);
+            TestUtils.setValue(model, "= A0 * 2 + $A$0", 0, 1);
+            Formula original = model.getValueAt(0, 1).getAsFormula();
+            for (int row = 1; row < 10; row++)
+                model.setValueAt(Value.of(original.shift(model, row, 0)), row, 1);
+            for (int i = 0; i < 2 * Formula.COMPILATION_THRESHOLD; i++) {
+                for (int row = 9; row >= 0; row--)
+                    TestUtils.setValue(model, Integer.toString(i + row), row, 0);
+                for (int row = 0; row < 10; row++) {
+                    double expected = 2 * (i + row) + i;
+                    assertEquals(expected, model.getResultAt(new Cell(row, 1)).get().getAsDouble());
+                }
+            }
+            assertSame(original.getTemplate(), model.getValueAt(9, 1).getAsFormula().getTemplate());
+            assertSame(original.getTemplate().getCompiled(),
+                model.getValueAt(9, 1).getAsFormula().getTemplate().getCompiled());
+        }
     }
 
     @Nested
@@ -275,6 +746,106 @@ public class TableModelTest {
             TestUtils.setValue(model, "=A0 + A0", 0, 0);
             checkErrorResult("Circular dependency", 0, 0);
         }
+
+        @Test
+        void deepChain() throws Exception {
+            int length = 100_000;
+            JSheetTableModel model = new JSheetTableModel(length, 10);
+            for (int row = 1; row < length; row++)
+                TestUtils.setValue(model, "= A" + (row - 1) + " + 1", row, 0);
+            // Found first when looking for cells which depend on A0
+            TestUtils.setValue(model, "= A0 + A" + (length - 1), 0, 1);
+            // Re-evaluates the whole chain on a thread with a small stack
+            List<Throwable> errors = new ArrayList<>();
+            Thread thread = new Thread(null, () -> {
+                try {
+                    TestUtils.setValue(model, "1", 0, 0);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "deepChain", 256 * 1024);
+            thread.start();
+            thread.join();
+            assertEquals(List.of(), errors);
+            assertEquals(length, model.getResultAt(new Cell(length - 1, 0)).get().getAsDouble());
+            assertEquals(length + 1, model.getResultAt(new Cell(0, 1)).get().getAsDouble());
+        }
+
+        @Test
+        void cycleWithDependents() throws ParseException {
+            TestUtils.setValue(model, "= C0 + 1", 0, 0);
+            TestUtils.setValue(model, "= A0 + 1", 0, 1);
+            TestUtils.setValue(model, "= B0 + 1", 0, 3);
+            TestUtils.setValue(model, "1", 0, 2);
+            checkSuccessDoubleResult(4, 0, 3);
+            // Closes the cycle A0 -> C0 -> B0 -> A0
+            TestUtils.setValue(model, "= B0", 0, 2);
+            for (int column = 0; column < 4; column++)
+                checkErrorResult("Circular dependency", 0, column);
+            // Breaks it
+            TestUtils.setValue(model, "2", 0, 2);
+            checkSuccessDoubleResult(5, 0, 3);
+        }
+
+        @Test
+        void dependentsEnteredFirst() throws ParseException {
+            // Every formula is entered before the formulae it references
+            TestUtils.setValue(model, "= B0 + sum(C0:D0)", 0, 0);
+            TestUtils.setValue(model, "= C0 * 2", 0, 1);
+            TestUtils.setValue(model, "= D0 + 1", 0, 2);
+            TestUtils.setValue(model, "= E0 + 1", 0, 3);
+            TestUtils.setValue(model, "1", 0, 4);
+            checkSuccessDoubleResult(11, 0, 0);
+            TestUtils.setValue(model, "2", 0, 4);
+            checkSuccessDoubleResult(8, 0, 1);
+            checkSuccessDoubleResult(15, 0, 0);
+        }
+
+        @Test
+        void cycleThroughRange() throws ParseException {
+            TestUtils.setValue(model, "= sum(B0:C0)", 0, 0);
+            TestUtils.setValue(model, "1", 0, 1);
+            TestUtils.setValue(model, "= A0", 0, 2);
+            for (int column = 0; column < 3; column += 2)
+                checkErrorResult("Circular dependency", 0, column);
+            TestUtils.setValue(model, "= B0", 0, 2);
+            checkSuccessDoubleResult(2, 0, 0);
+            TestUtils.setValue(model, "3", 0, 1);
+            checkSuccessDoubleResult(6, 0, 0);
+        }
+
+        @Test
+        void sharedDefinitions() throws ParseException {
+            TestUtils.setValue(model, "1", 0, 0);
+            TestUtils.setValue(model, "=A0 * 2", 0, 1);
+            TestUtils.setValue(model, "=A0 * 2", 0, 2);
+            Formula first = model.getValueAt(0, 1).getAsFormula();
+            Formula second = model.getValueAt(0, 2).getAsFormula();
+            assertSame(first.getTemplate(), second.getTemplate());
+
+            // Shifted copies have their own bindings
+            Formula shifted = first.shift(model, 0, 2);
+            model.setValueAt(Value.of(shifted), 0, 3);
+            TestUtils.setValue(model, "5", 0, 2);
+            checkSuccessDoubleResult(2, 0, 1);
+            checkSuccessDoubleResult(10, 0, 3);
+        }
+
+        @Test
+        void errorsPropagateAsValues() throws ParseException {
+            TestUtils.setValue(model, "true", 0, 0);
+            TestUtils.setValue(model, "= A0 + 1", 0, 1);
+            TestUtils.setValue(model, "= B0 * 2", 0, 2);
+            TestUtils.setValue(model, "= if C0 > 0 then 1 else 2", 0, 3);
+            TestUtils.setValue(model, "= A0 + 2", 0, 4);
+            Value error = model.getResultAt(new Cell(0, 1)).getError();
+            assertSame(Type.ERROR, error.getTag());
+            assertSame(error, model.getResultAt(new Cell(0, 2)).getError());
+            assertSame(error, model.getResultAt(new Cell(0, 3)).getError());
+            // Type mismatches are interned
+            assertSame(error, model.getResultAt(new Cell(0, 4)).getError());
+            checkErrorResult("Expected DOUBLE and got BOOLEAN", 0, 3);
+        }
     }
 
     private void checkPlainDouble(double expected, int row, int column) {